@@ -2,69 +2,130 @@ package org.monitor;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monitor.model.Action;
 import org.monitor.model.Config;
 import org.monitor.model.ConfigCollection;
+import org.monitor.model.DedupMode;
+import org.monitor.model.WatcherType;
+import org.monitor.service.ActionExecutor;
+import org.monitor.service.ActionJournal;
+import org.monitor.service.BacklogScanner;
+import org.monitor.service.BundleWriter;
 import org.monitor.service.ConfigParser;
+import org.monitor.service.DirectoryReconciler;
 import org.monitor.service.FileSystemMonitor;
-import org.monitor.service.FolderMonitor;
+import org.monitor.service.GroupSync;
+import org.monitor.service.InotifyWatchBackend;
 import org.monitor.service.MonitorService;
+import org.monitor.service.PollingWatchBackend;
+import org.monitor.service.SharedWatchService;
+import org.monitor.service.StabilityDetector;
+import org.monitor.service.TimingWheelScheduler;
+import org.monitor.service.WatchBackend;
+import org.monitor.util.DedupIndex;
 import org.monitor.util.FileIO;
+import org.monitor.util.HashCache;
+import org.monitor.util.TransferEngine;
 
 import java.io.IOException;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class AppLoader {
     private static final Logger logger = LogManager.getLogger();
+    private static final String JOURNAL_FILE_NAME = "pending-actions.journal";
 
     public static void main(String[] args) {
         logger.info("App Started");
         String configFileName = "Config.json";
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (TransferEngine.StrategyStats stats : TransferEngine.stats()) {
+                logger.info("Transferred {} files, {} bytes by {} at {} MB/s", stats.files(), stats.bytes(),
+                        stats.strategy(), String.format("%.1f", stats.bytesPerSecond() / 1_000_000));
+            }
             logger.info("App Closing");
         }));
 
         if(Files.exists(Path.of(configFileName))){
             ConfigCollection configCollection = ConfigParser.parseConfig(configFileName);
             if(configCollection != null && configCollection.configs() != null){
-                try(ExecutorService es = Executors.newFixedThreadPool(configCollection.configs().size())){
-                    List<Callable<Void>> callableList = new ArrayList<>();
-                    for(Config config : configCollection.configs()){
-                        if(config != null){
-                            callableList.add(() -> {
-                                try {
-                                    FileSystemMonitor fsm = new FileSystemMonitor.Builder()
-                                            .withMonitoredPath(Path.of(config.sourceFolder()))
-                                            .build();
-
-                                    MonitorService monitorService = new MonitorService.Builder()
-                                            .withFileSystemMonitor(fsm)
-                                            .withConfig(config)
-                                            .withLogger(logger)
-                                            .withScheduledExecutorService(Executors.newSingleThreadScheduledExecutor())
-                                            .build();
-
-                                    monitorService.startMonitor();
-                                } catch (IOException e) {
-                                    logger.error("Error: {}", e.getMessage());
-                                }
-                                return null;
-                            });
-                        }else{
-                            logger.error("Config file was found however config object is null.");
+                // Configs share one backend (and dispatch thread) per watcher type and one small scheduler pool,
+                // instead of a WatchService plus two threads each.
+                Map<WatcherType, WatchBackend> watchBackends = new EnumMap<>(WatcherType.class);
+                Map<Long, WatchBackend> pollingBackends = new HashMap<>();
+                StabilityDetector stabilityDetector = new StabilityDetector.Builder().build();
+                DirectoryReconciler reconciler = new DirectoryReconciler.Builder().build();
+                BacklogScanner backlogScanner = new BacklogScanner.Builder().build();
+                HashCache hashCache = new HashCache(16_384);
+                Map<Path, DedupIndex> dedupIndexes = new ConcurrentHashMap<>();
+                ActionJournal journal = openJournal(Path.of(JOURNAL_FILE_NAME));
+                // One timing wheel holds the pending actions of every config; due actions are queued per archive
+                // file store on a shared executor, so a slow disk doesn't hold up the others
+                TimingWheelScheduler scheduler = new TimingWheelScheduler.Builder().build();
+                ActionExecutor actionExecutor = new ActionExecutor.Builder().build();
+                // Moves with GROUP durability share one sync per interval, and configs bundling to the same folder
+                // share its bundles. On shutdown nothing new is scheduled, the executor finishes what it has, and
+                // only then close what its actions write to; the journal last, since the others complete entries
+                GroupSync groupSync = new GroupSync.Builder().build();
+                Map<Path, BundleWriter> bundleWriters = new ConcurrentHashMap<>();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    scheduler.close();
+                    actionExecutor.close();
+                    dedupIndexes.values().forEach(DedupIndex::close);
+                    bundleWriters.values().forEach(BundleWriter::close);
+                    groupSync.close();
+                    if (journal != null) {
+                        journal.close();
+                    }
+                }));
+
+                for(Config config : configCollection.configs()){
+                    if(config != null){
+                        try {
+                            FileSystemMonitor fsm = new FileSystemMonitor.Builder()
+                                    .withMonitoredPath(Path.of(config.sourceFolder()))
+                                    .withRecursive(config.recursive())
+                                    .withWatchBackend(config.watcher() == WatcherType.POLLING
+                                            ? pollingBackend(pollingBackends, config.pollInterval())
+                                            : watchBackend(watchBackends, config.watcher()))
+                                    .withStabilityDetector(stabilityDetector)
+                                    .withReconciler(reconciler)
+                                    .build();
+
+                            MonitorService monitorService = new MonitorService.Builder()
+                                    .withFileSystemMonitor(fsm)
+                                    .withConfig(config)
+                                    .withLogger(logger)
+                                    .withActionScheduler(scheduler)
+                                    .withActionExecutor(actionExecutor)
+                                    .withBacklogScanner(backlogScanner)
+                                    .withHashCache(hashCache)
+                                    .withDedupIndex(dedupIndex(dedupIndexes, config))
+                                    .withJournal(journal)
+                                    .withGroupSync(groupSync)
+                                    .withBundleWriter(bundleWriter(bundleWriters, config))
+                                    .build();
+
+                            monitorService.startMonitor();
+                        } catch (IOException | IllegalArgumentException e) {
+                            logger.error("Error: {}", e.getMessage());
                         }
+                    }else{
+                        logger.error("Config file was found however config object is null.");
                     }
-                    es.invokeAll(callableList);
-                } catch (InterruptedException e) {
-                    logger.error("Execution thread interrupted: {}", e.getMessage());
-                    throw new RuntimeException(e);
                 }
+                List<WatchBackend> backends = new ArrayList<>(watchBackends.values());
+                backends.addAll(pollingBackends.values());
+                runWatchBackends(backends);
             }
 
         }else{
@@ -92,4 +153,108 @@ public class AppLoader {
             FileIO.saveFile(configFileName, defaultConfig);
         }
     }
+
+    private static WatchBackend watchBackend(Map<WatcherType, WatchBackend> watchBackends, WatcherType type) throws IOException {
+        WatchBackend watchBackend = watchBackends.get(type);
+        if (watchBackend != null) {
+            return watchBackend;
+        }
+
+        if (type == WatcherType.INOTIFY) {
+            if (InotifyWatchBackend.isSupported()) {
+                watchBackend = new InotifyWatchBackend();
+            } else {
+                logger.error("inotify is not available on this platform, falling back to {}", WatcherType.WATCH_SERVICE);
+                watchBackend = watchBackend(watchBackends, WatcherType.WATCH_SERVICE);
+            }
+        } else {
+            watchBackend = new SharedWatchService();
+        }
+        watchBackends.put(type, watchBackend);
+        return watchBackend;
+    }
+
+    /**
+     * One journal beside the config file holds the pending actions of every config. Without it actions still run,
+     * they just don't survive a restart.
+     */
+    private static ActionJournal openJournal(Path journalFile){
+        try {
+            return new ActionJournal.Builder().withFile(journalFile).build();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to open journal '{}', pending actions won't survive a restart: {}", journalFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Configs archiving to the same folder share its dedup index.
+     */
+    private static DedupIndex dedupIndex(Map<Path, DedupIndex> dedupIndexes, Config config) throws IOException {
+        if (config.dedup() == DedupMode.OFF) {
+            return null;
+        }
+        Path archiveFolder = Path.of(config.archiveFolder()).toAbsolutePath().normalize();
+        DedupIndex dedupIndex = dedupIndexes.get(archiveFolder);
+        if (dedupIndex == null) {
+            Files.createDirectories(archiveFolder);
+            try {
+                dedupIndex = DedupIndex.open(archiveFolder.resolve(".dedup-index"));
+            } catch (RuntimeException e) {
+                throw new IOException("Unable to open the dedup index of '" + archiveFolder + "': " + e.getMessage(), e);
+            }
+            dedupIndexes.put(archiveFolder, dedupIndex);
+        }
+        return dedupIndex;
+    }
+
+    /**
+     * Configs bundling to the same folder share its bundles, sealed at the limits of the first of them.
+     */
+    private static BundleWriter bundleWriter(Map<Path, BundleWriter> bundleWriters, Config config) throws IOException {
+        if (config.action() != Action.BUNDLE) {
+            return null;
+        }
+        Path archiveFolder = Path.of(config.archiveFolder()).toAbsolutePath().normalize();
+        BundleWriter bundleWriter = bundleWriters.get(archiveFolder);
+        if (bundleWriter == null) {
+            bundleWriter = new BundleWriter.Builder()
+                    .withFolder(archiveFolder)
+                    .withMaxBytes(config.bundleSize())
+                    .withMaxAge(config.bundleMaxAgeSeconds(), TimeUnit.SECONDS)
+                    .build();
+            bundleWriters.put(archiveFolder, bundleWriter);
+        }
+        return bundleWriter;
+    }
+
+    /**
+     * Polling backends are shared between configs with the same interval.
+     */
+    private static WatchBackend pollingBackend(Map<Long, WatchBackend> pollingBackends, long pollInterval){
+        return pollingBackends.computeIfAbsent(pollInterval, interval -> new PollingWatchBackend.Builder()
+                .withMinInterval(Math.min(250, interval), TimeUnit.MILLISECONDS)
+                .withMaxInterval(interval, TimeUnit.MILLISECONDS)
+                .build());
+    }
+
+    /**
+     * Runs every backend's dispatch loop on its own thread and waits for them to finish.
+     */
+    private static void runWatchBackends(Collection<WatchBackend> watchBackends){
+        List<Thread> threads = new ArrayList<>();
+        // A fallback maps two types to the same backend, which must only run once
+        for (WatchBackend watchBackend : new LinkedHashSet<>(watchBackends)) {
+            threads.add(Thread.ofPlatform().name(watchBackend.getClass().getSimpleName()).start(watchBackend::run));
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                logger.error("Execution thread interrupted: {}", e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 }
\ No newline at end of file
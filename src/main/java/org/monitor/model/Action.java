@@ -1,5 +1,5 @@
 package org.monitor.model;
 
 public enum Action {
-    MOVE, COPY, DELETE
+    MOVE, COPY, DELETE, COMPRESS, BUNDLE
 }
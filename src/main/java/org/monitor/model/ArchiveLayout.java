@@ -0,0 +1,8 @@
+package org.monitor.model;
+
+/**
+ * Where in the archive folder a file goes: straight in it (FLAT), under the hour it was last modified, as
+ * yyyy/MM/dd/HH (DATE), under two levels named after a hash of its name, as ab/cd (HASH_PREFIX), or under the
+ * name of its source folder (SOURCE). Files of a recursive source keep their relative path below that.
+ */
+public enum ArchiveLayout {FLAT, DATE, HASH_PREFIX, SOURCE}
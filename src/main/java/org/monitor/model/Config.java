@@ -1,5 +1,118 @@
 package org.monitor.model;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-public record Config(String sourceFolder, String archiveFolder, Action action, int delay, TimeUnit timeUnit) {}
+public record Config(String sourceFolder, String archiveFolder, Action action, int delay, TimeUnit timeUnit,
+                     boolean recursive, Boolean scanExisting, WatcherType watcher, long pollInterval,
+                     HashAlgorithm hashAlgorithm, long treeHashThreshold,
+                     long fingerprintThreshold, DedupMode dedup, int archiveParallelism,
+                     TransferMode transfer, boolean verifyCopy, Durability durability,
+                     int archiveMebibytesPerSecond, int archiveIops,
+                     int compressionLevel, int compressionThreads,
+                     long bundleFileThreshold, long bundleSize, int bundleMaxAgeSeconds,
+                     ArchiveLayout layout, List<String> mirrorFolders, int fanOutBufferMegabytes) {
+
+    public Config {
+        // Files already in the source folder are processed on startup unless turned off
+        if (scanExisting == null) {
+            scanExisting = true;
+        }
+
+        if (watcher == null) {
+            watcher = WatcherType.WATCH_SERVICE;
+        }
+
+        // Longest time in milliseconds an idle folder goes unpolled with the POLLING watcher
+        if (pollInterval <= 0) {
+            pollInterval = 5000;
+        }
+
+        if (hashAlgorithm == null) {
+            hashAlgorithm = HashAlgorithm.MD5;
+        }
+
+        // Files of at least this many bytes are hashed as a tree of chunks in parallel. Off unless set, since it
+        // records a different digest for those files and writes a .treehash file beside each in the archive.
+        if (treeHashThreshold < 0) {
+            treeHashThreshold = 0;
+        }
+
+        // Files of at least this many bytes are only fingerprinted by sampling instead of hashed in full.
+        // Off unless set, since a fingerprint can miss changes between the samples.
+        if (fingerprintThreshold < 0) {
+            fingerprintThreshold = 0;
+        }
+
+        if (dedup == null) {
+            dedup = DedupMode.OFF;
+        }
+
+        // Actions run at once on the archive folder's file store, 0 leaves it to the executor's default
+        if (archiveParallelism < 0) {
+            archiveParallelism = 0;
+        }
+
+        // A hard link shares the inode with the source, so LINK is never the default
+        if (transfer == null) {
+            transfer = TransferMode.AUTO;
+        }
+
+        // A crash must not lose a moved file, so the copy is on disk before the source goes unless told otherwise
+        if (durability == null) {
+            durability = Durability.FILE;
+        }
+
+        // Caps on what copies to the archive folder's file store may use, in MiB and I/O operations per second;
+        // 0 leaves it unthrottled
+        if (archiveMebibytesPerSecond < 0) {
+            archiveMebibytesPerSecond = 0;
+        }
+
+        if (archiveIops < 0) {
+            archiveIops = 0;
+        }
+
+        // Deflate level of COMPRESS, 1 (fastest) to 9 (smallest)
+        if (compressionLevel <= 0) {
+            compressionLevel = 6;
+        } else if (compressionLevel > 9) {
+            compressionLevel = 9;
+        }
+
+        // Cores one COMPRESS may use at once, 0 for all of them
+        if (compressionThreads < 0) {
+            compressionThreads = 0;
+        }
+
+        // BUNDLE appends files smaller than this to the archive's rolling bundles and copies larger ones
+        if (bundleFileThreshold <= 0) {
+            bundleFileThreshold = 1024 * 1024;
+        }
+
+        // A bundle is sealed at this many bytes or once its first file is this old, whichever comes first
+        if (bundleSize <= 0) {
+            bundleSize = 256L * 1024 * 1024;
+        }
+
+        if (bundleMaxAgeSeconds <= 0) {
+            bundleMaxAgeSeconds = 300;
+        }
+
+        if (layout == null) {
+            layout = ArchiveLayout.FLAT;
+        }
+
+        // Further folders COPY and MOVE write every file to, laid out like the archive folder
+        mirrorFolders = mirrorFolders == null ? List.of() : List.copyOf(mirrorFolders);
+
+        // Memory a file copied to several folders may hold while the slowest one catches up, in MiB
+        if (fanOutBufferMegabytes <= 0) {
+            fanOutBufferMegabytes = 16;
+        }
+    }
+
+    public Config(String sourceFolder, String archiveFolder, Action action, int delay, TimeUnit timeUnit){
+        this(sourceFolder, archiveFolder, action, delay, timeUnit, false, true, WatcherType.WATCH_SERVICE, 0, HashAlgorithm.MD5, 0, 0, DedupMode.OFF, 0, TransferMode.AUTO, false, Durability.FILE, 0, 0, 6, 0, 0, 0, 0, ArchiveLayout.FLAT, List.of(), 16);
+    }
+}
@@ -0,0 +1,7 @@
+package org.monitor.model;
+
+/**
+ * What to do with a file whose content is already in the archive: archive it again (OFF), leave the archive as it
+ * is (SKIP), or hard-link the archived copy to the new destination (LINK).
+ */
+public enum DedupMode {OFF, SKIP, LINK}
@@ -0,0 +1,8 @@
+package org.monitor.model;
+
+/**
+ * When a MOVE across file systems deletes the source: right after the archived copy is renamed into place (NONE),
+ * once the copy and its directory entry have been forced to disk (FILE), or once a periodic sync shared by all
+ * recent copies has made them durable (GROUP).
+ */
+public enum Durability {NONE, FILE, GROUP}
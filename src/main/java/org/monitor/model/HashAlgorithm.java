@@ -0,0 +1,9 @@
+package org.monitor.model;
+
+/**
+ * Digest used to confirm a file hasn't changed between detection and action. MD5 is kept as the default;
+ * CRC32C and XXH64 are non-cryptographic and several times faster.
+ */
+public enum HashAlgorithm {
+    MD5, CRC32C, XXH64
+}
@@ -5,4 +5,16 @@ import java.nio.file.Path;
 public interface MonitorListener {
     void onDetected(Path detectedPath, EventType eventType);
     void onMonitorFailed();
+
+    /**
+     * A file changed after it was created. Called on the dispatch thread.
+     */
+    default void onModified(Path modifiedPath){
+    }
+
+    /**
+     * An entry was deleted or moved out of the monitored folder. Called on the dispatch thread.
+     */
+    default void onDeleted(Path deletedPath){
+    }
 }
@@ -0,0 +1,8 @@
+package org.monitor.model;
+
+/**
+ * How COPY, and MOVE across file systems, write the archived copy: cloned or transferred by the kernel, trusting
+ * the source's digest (AUTO); the same, but hard-linked when source and archive share a file system (LINK); or read
+ * and hashed here while copying, so the bytes written are the ones verified (STREAM).
+ */
+public enum TransferMode {AUTO, LINK, STREAM}
@@ -0,0 +1,3 @@
+package org.monitor.model;
+
+public enum WatcherType {WATCH_SERVICE, INOTIFY, POLLING}
@@ -0,0 +1,305 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.Throttle;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs due actions off the scheduler, with a separate bounded queue and parallelism for every file store written
+ * to. A slow or busy archive disk then only holds up the actions that go to it.
+ *
+ * <p>Each store gets a lane: at most {@code parallelism} of its actions run at once and at most
+ * {@code queueCapacity} wait; submitting to a full lane is refused rather than waited out, so the caller, usually a
+ * scheduler thread with actions for other stores in hand, moves on and tries again later. Queue depths are
+ * logged periodically while any lane is busy, and are available from {@link #stats()}.</p>
+ *
+ * <p>A lane also carries the {@link Throttle} that actions writing to its store copy through, so the bandwidth and
+ * I/O operations they take from a store shared with other applications can be capped.</p>
+ */
+public class ActionExecutor {
+    private static final Logger logger = LogManager.getLogger();
+
+    public record LaneStats(String store, int parallelism, int running, int queued, int maxQueued, long completed,
+                            long throttledMillis) {
+    }
+
+    private final int defaultParallelism;
+    private final int queueCapacity;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService metrics;
+    private final Map<Path, Lane> lanesByFolder = new ConcurrentHashMap<>();
+    private final Map<FileStore, Lane> lanesByStore = new ConcurrentHashMap<>();
+    private final Set<Lane> lanes = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public ActionExecutor(ActionExecutor.Builder builder) {
+        this.defaultParallelism = builder.defaultParallelism;
+        this.queueCapacity = builder.queueCapacity;
+        // Threads are bounded by the lanes, which never run more than their parallelism
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "action-executor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "action-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.metrics.scheduleWithFixedDelay(this::logStats, builder.metricsIntervalMillis, builder.metricsIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static class Builder{
+        private int defaultParallelism = 2;
+        private int queueCapacity = 10_000;
+        private long metricsIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+
+        /**
+         * Actions run at once on a store nobody configured a parallelism for.
+         */
+        public Builder withDefaultParallelism(int defaultParallelism){
+            this.defaultParallelism = defaultParallelism;
+            return this;
+        }
+
+        /**
+         * Actions waiting per store before submissions are refused.
+         */
+        public Builder withQueueCapacity(int queueCapacity){
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder withMetricsInterval(long interval, TimeUnit timeUnit){
+            this.metricsIntervalMillis = timeUnit.toMillis(interval);
+            return this;
+        }
+
+        public ActionExecutor build(){
+            if(defaultParallelism <= 0){
+                throw new IllegalArgumentException("Parallelism must be positive");
+            }
+
+            if(queueCapacity <= 0){
+                throw new IllegalArgumentException("Queue capacity must be positive");
+            }
+
+            if(metricsIntervalMillis <= 0){
+                throw new IllegalArgumentException("Metrics interval must be positive");
+            }
+
+            return new ActionExecutor(this);
+        }
+    }
+
+    /**
+     * Lets at least {@code parallelism} actions run at once on the store holding {@code folder}. Folders on the
+     * same store share one lane, which keeps the highest parallelism asked for.
+     */
+    public void ensureParallelism(Path folder, int parallelism){
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        lane(folder).raiseParallelism(parallelism);
+    }
+
+    /**
+     * Caps the bytes and I/O operations per second that copies to the store holding {@code folder} may use, 0 for no
+     * cap. Folders on the same store share one throttle, which keeps the strictest limits asked for.
+     */
+    public void limitBandwidth(Path folder, long bytesPerSecond, long operationsPerSecond){
+        lane(folder).throttle.limit(bytesPerSecond, operationsPerSecond);
+    }
+
+    /**
+     * Throttle of the store holding {@code folder}, unlimited unless {@link #limitBandwidth} was called for it.
+     */
+    public Throttle throttle(Path folder){
+        return lane(folder).throttle;
+    }
+
+    /**
+     * Queues the action on the lane of the store holding {@code folder}. Returns false without waiting when that
+     * lane is full.
+     */
+    public boolean submit(Path folder, Runnable action){
+        if (closed) {
+            throw new IllegalStateException("Action executor is closed");
+        }
+        return lane(folder).offer(action);
+    }
+
+    /**
+     * Actions queued behind the running ones on the store holding {@code folder}.
+     */
+    public int queueDepth(Path folder){
+        return lane(folder).stats().queued();
+    }
+
+    public List<LaneStats> stats(){
+        List<LaneStats> stats = new ArrayList<>();
+        for (Lane lane : lanes) {
+            stats.add(lane.stats());
+        }
+        return stats;
+    }
+
+    private void logStats(){
+        for (Lane lane : lanes) {
+            LaneStats stats = lane.stats();
+            if (stats.running() > 0 || stats.queued() > 0) {
+                logger.info("Actions on '{}': {} running of {}, {} queued (max {}), {} done, {} ms throttled",
+                        stats.store(), stats.running(), stats.parallelism(), stats.queued(), stats.maxQueued(), stats.completed(),
+                        stats.throttledMillis());
+            }
+        }
+    }
+
+    private Lane lane(Path folder){
+        Path key = folder.toAbsolutePath().normalize();
+        Lane lane = lanesByFolder.get(key);
+        if (lane != null) {
+            return lane;
+        }
+        // Looking a store up reads the mount table, so it is done once per folder
+        FileStore store = fileStore(key);
+        lane = store == null
+                ? new Lane(key.toString(), defaultParallelism)
+                : lanesByStore.computeIfAbsent(store, s -> new Lane(s.toString(), defaultParallelism));
+        Lane existing = lanesByFolder.putIfAbsent(key, lane);
+        if (existing != null) {
+            return existing;
+        }
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Store of the folder, or of its closest existing ancestor when it hasn't been created yet.
+     */
+    private static FileStore fileStore(Path folder){
+        for (Path path = folder; path != null; path = path.getParent()) {
+            if (Files.exists(path)) {
+                try {
+                    return Files.getFileStore(path);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops taking actions and waits a little for the queued ones to finish.
+     */
+    public void close(){
+        closed = true;
+        metrics.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+                logger.error("Action executor did not terminate in time, forced shutdown.");
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            logger.error("Action executor shutdown interrupted.");
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final String store;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private final Throttle throttle = new Throttle(0, 0);
+        // Guarded by this
+        private int parallelism;
+        private int running;
+        private int maxQueued;
+        private long completed;
+
+        private Lane(String store, int parallelism) {
+            this.store = store;
+            this.parallelism = parallelism;
+        }
+
+        private synchronized void raiseParallelism(int parallelism){
+            this.parallelism = Math.max(this.parallelism, parallelism);
+            startWorkers();
+        }
+
+        private synchronized boolean offer(Runnable action){
+            if (queue.size() >= queueCapacity) {
+                return false;
+            }
+            queue.add(action);
+            maxQueued = Math.max(maxQueued, queue.size());
+            try {
+                startWorkers();
+            } catch (RuntimeException e) {
+                // The workers are shut down, so nothing would ever run it
+                queue.removeLastOccurrence(action);
+                throw e;
+            }
+            return true;
+        }
+
+        /**
+         * Starts another drain loop for as long as there is queued work and room under the parallelism.
+         */
+        private void startWorkers(){
+            while (running < parallelism && running < queue.size()) {
+                running++;
+                try {
+                    workers.execute(this);
+                } catch (RuntimeException e) {
+                    running--;
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run(){
+            while (true) {
+                Runnable action;
+                synchronized (this) {
+                    action = queue.poll();
+                    if (action == null) {
+                        running--;
+                        return;
+                    }
+                }
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    logger.error("Action on '{}' failed", store, e);
+                }
+                synchronized (this) {
+                    completed++;
+                }
+            }
+        }
+
+        private synchronized LaneStats stats(){
+            return new LaneStats(store, parallelism, running, queue.size(), maxQueued, completed,
+                    TimeUnit.NANOSECONDS.toMillis(throttle.waitedNanos()));
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.model.Action;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of scheduled actions, so actions still pending when the process stops are picked up again
+ * on the next start.
+ *
+ * <p>An append-only log in a memory-mapped file: scheduling an action appends a record with its path, hash, due
+ * time and action, finishing or cancelling it appends a tombstone. Appends only write to memory; a flusher thread
+ * forces the mapping to disk every commit interval, so all records of one interval share a single fsync and a crash
+ * loses at most that interval. Once tombstones make up most of the log it is rewritten with only the live records.</p>
+ *
+ * <p>One process at a time: the file is locked while open. Records carry an owner so services sharing the journal
+ * each recover only their own actions.</p>
+ *
+ * <p>The kernel writes the mapped pages back in no particular order, so after a crash the end in the header may
+ * cover a record whose page never made it to disk. Every record therefore carries a CRC, and replay stops at the
+ * first record that fails it or doesn't parse, cutting the log off there.</p>
+ */
+public class ActionJournal implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int MAGIC = 0x4A524E32; // "JRN2"
+    private static final long HEADER_SIZE = 16;
+    private static final long END_OFFSET = 8;
+    // Length and CRC of what follows
+    private static final int RECORD_HEADER = 8;
+    private static final int SCHEDULED_FIXED = 1 + 8 + 8 + 1 + 12;
+    private static final int COMPLETED_LENGTH = 1 + 8;
+    private static final long MIN_MAPPING = 1024 * 1024;
+    private static final byte SCHEDULED = 1;
+    private static final byte COMPLETED = 2;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    public record Entry(long id, String owner, Path path, String hash, long dueTime, Action action) {
+    }
+
+    private final Path file;
+    private final long compactMillis;
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this
+    private FileChannel channel;
+    private FileLock lock;
+    private Arena arena;
+    private volatile MemorySegment segment;
+    private long end;
+    private long nextId = 1;
+    private final Map<Long, Entry> live = new LinkedHashMap<>();
+    private long lastCompaction = System.currentTimeMillis();
+    private boolean closed;
+
+    // Taken by the flusher while forcing, and by whoever replaces the mapping it forces. Always taken after this,
+    // never the other way round
+    private final Object flushLock = new Object();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public ActionJournal(ActionJournal.Builder builder) throws IOException {
+        this.file = builder.file.toAbsolutePath();
+        this.compactMillis = builder.compactMillis;
+        open();
+        try {
+            replay();
+            if (liveBytes() * 2 < end) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeMapping();
+            throw e;
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "action-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::commit, builder.commitMillis, builder.commitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static class Builder{
+        private Path file;
+        private long commitMillis = 200;
+        private long compactMillis = TimeUnit.MINUTES.toMillis(10);
+
+        public Builder withFile(Path file){
+            this.file = file;
+            return this;
+        }
+
+        /**
+         * How often appended records are forced to disk, which is also the most a crash can lose.
+         */
+        public Builder withCommitInterval(long commitInterval, TimeUnit timeUnit){
+            this.commitMillis = timeUnit.toMillis(commitInterval);
+            return this;
+        }
+
+        /**
+         * How often the journal is checked for compaction.
+         */
+        public Builder withCompactInterval(long compactInterval, TimeUnit timeUnit){
+            this.compactMillis = timeUnit.toMillis(compactInterval);
+            return this;
+        }
+
+        public ActionJournal build() throws IOException {
+            if(file == null){
+                throw new IllegalArgumentException("Journal file must not be null");
+            }
+
+            if(commitMillis <= 0){
+                throw new IllegalArgumentException("Commit interval must be positive");
+            }
+
+            if(compactMillis <= 0){
+                throw new IllegalArgumentException("Compact interval must be positive");
+            }
+
+            return new ActionJournal(this);
+        }
+    }
+
+    /**
+     * Records a scheduled action and returns the id to complete it with, or 0 once the journal is closed.
+     */
+    public synchronized long append(String owner, Path path, String hash, long dueTime, Action action) throws IOException {
+        if (closed) {
+            return 0;
+        }
+        byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] hashBytes = hash.getBytes(StandardCharsets.US_ASCII);
+        long id = nextId++;
+
+        int length = SCHEDULED_FIXED + ownerBytes.length + pathBytes.length + hashBytes.length;
+        long offset = reserve(length);
+        MemorySegment target = segment;
+        long position = offset + RECORD_HEADER;
+        target.set(ValueLayout.JAVA_BYTE, position, SCHEDULED);
+        target.set(LONG, position + 1, id);
+        target.set(LONG, position + 9, dueTime);
+        target.set(ValueLayout.JAVA_BYTE, position + 17, (byte) action.ordinal());
+        target.set(INT, position + 18, ownerBytes.length);
+        target.set(INT, position + 22, pathBytes.length);
+        target.set(INT, position + 26, hashBytes.length);
+        position += 30;
+        MemorySegment.copy(ownerBytes, 0, target, ValueLayout.JAVA_BYTE, position, ownerBytes.length);
+        position += ownerBytes.length;
+        MemorySegment.copy(pathBytes, 0, target, ValueLayout.JAVA_BYTE, position, pathBytes.length);
+        position += pathBytes.length;
+        MemorySegment.copy(hashBytes, 0, target, ValueLayout.JAVA_BYTE, position, hashBytes.length);
+        publish(offset, length);
+
+        live.put(id, new Entry(id, owner, path, hash, dueTime, action));
+        return id;
+    }
+
+    /**
+     * Records that the action with this id ran or was cancelled. Unknown ids are ignored, and so is everything once
+     * the journal is closed; an action finishing during shutdown is then replayed on the next start.
+     */
+    public synchronized void complete(long id){
+        if (closed || live.remove(id) == null) {
+            return;
+        }
+        try {
+            long offset = reserve(COMPLETED_LENGTH);
+            segment.set(ValueLayout.JAVA_BYTE, offset + RECORD_HEADER, COMPLETED);
+            segment.set(LONG, offset + RECORD_HEADER + 1, id);
+            publish(offset, COMPLETED_LENGTH);
+        } catch (IOException e) {
+            // Replayed on the next start, where it finds the file gone or archives it again
+            logger.error("Unable to record completion in journal '{}': {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Actions of this owner that were scheduled and never completed, oldest first.
+     */
+    public synchronized List<Entry> pending(String owner){
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : live.values()) {
+            if (entry.owner().equals(owner)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public synchronized int size(){
+        return live.size();
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void commit(){
+        synchronized (flushLock) {
+            if (arena != null && dirty.getAndSet(false)) {
+                try {
+                    segment.force();
+                } catch (RuntimeException e) {
+                    dirty.set(true);
+                    logger.error("Unable to flush journal '{}': {}", file, e.getMessage());
+                }
+            }
+        }
+        // Outside the flush lock, since compacting takes this first
+        maybeCompact();
+    }
+
+    private void maybeCompact(){
+        synchronized (this) {
+            if (arena == null || System.currentTimeMillis() - lastCompaction < compactMillis) {
+                return;
+            }
+            lastCompaction = System.currentTimeMillis();
+            // Worth it once the log is mostly tombstones and the records they cancel
+            if (end > MIN_MAPPING && liveBytes() * 2 < end) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    logger.error("Unable to compact journal '{}': {}", file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live records, into a new file that atomically replaces the old one.
+     */
+    private synchronized void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for (Entry entry : live.values()) {
+                ByteBuffer record = encode(entry);
+                while (record.hasRemaining()) {
+                    position += out.write(record, position);
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate((int) HEADER_SIZE).order(ByteOrder.nativeOrder())
+                    .putInt(0, MAGIC).putLong((int) END_OFFSET, position);
+            out.write(header, 0);
+            out.force(true);
+        }
+
+        synchronized (flushLock) {
+            closeMapping();
+            Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            open();
+        }
+        logger.info("Compacted journal '{}' to {} pending actions", file, live.size());
+    }
+
+    private ByteBuffer encode(Entry entry){
+        byte[] ownerBytes = entry.owner().getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = entry.path().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] hashBytes = entry.hash().getBytes(StandardCharsets.US_ASCII);
+        int length = SCHEDULED_FIXED + ownerBytes.length + pathBytes.length + hashBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + length).order(ByteOrder.nativeOrder());
+        buffer.putInt(length).putInt(0).put(SCHEDULED).putLong(entry.id()).putLong(entry.dueTime()).put((byte) entry.action().ordinal())
+                .putInt(ownerBytes.length).putInt(pathBytes.length).putInt(hashBytes.length)
+                .put(ownerBytes).put(pathBytes).put(hashBytes);
+        buffer.putInt(4, crc(MemorySegment.ofArray(buffer.array()).asSlice(RECORD_HEADER, length)));
+        return buffer.flip();
+    }
+
+    private long liveBytes(){
+        long bytes = HEADER_SIZE;
+        for (Entry entry : live.values()) {
+            bytes += encode(entry).remaining();
+        }
+        return bytes;
+    }
+
+    /**
+     * Room for a record of {@code length} bytes after its length and CRC; returns where the record starts.
+     */
+    private long reserve(int length) throws IOException {
+        if (segment == null) {
+            // A failed compaction left the journal without a mapping
+            throw new IOException("Journal '" + file + "' is not open");
+        }
+        long required = end + RECORD_HEADER + length;
+        if (required > segment.byteSize()) {
+            synchronized (flushLock) {
+                map(Math.max(required, 2 * segment.byteSize()));
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Writes the length and CRC of the record and moves the end past it.
+     */
+    private void publish(long offset, int length){
+        segment.set(INT, offset + 4, crc(segment.asSlice(offset + RECORD_HEADER, length)));
+        segment.set(INT, offset, length);
+        end = offset + RECORD_HEADER + length;
+        segment.set(LONG, END_OFFSET, end);
+        dirty.set(true);
+    }
+
+    /**
+     * Reads the log up to the end, or up to the first record that is torn or otherwise damaged, where the end is
+     * then moved back to so new records overwrite it.
+     */
+    private void replay(){
+        long position = HEADER_SIZE;
+        while (position < end) {
+            long next = replayRecord(position);
+            if (next < 0) {
+                logger.warn("Journal '{}' is damaged at offset {}, dropping the {} bytes from there", file, position, end - position);
+                end = position;
+                segment.set(LONG, END_OFFSET, end);
+                dirty.set(true);
+                return;
+            }
+            position = next;
+        }
+    }
+
+    /**
+     * Replays the record at {@code position} and returns where the next one starts, or -1 if it is damaged.
+     */
+    private long replayRecord(long position){
+        if (end - position < RECORD_HEADER) {
+            return -1;
+        }
+        int length = segment.get(INT, position);
+        long record = position + RECORD_HEADER;
+        if (length < COMPLETED_LENGTH || length > end - record
+                || segment.get(INT, position + 4) != crc(segment.asSlice(record, length))) {
+            return -1;
+        }
+        byte type = segment.get(ValueLayout.JAVA_BYTE, record);
+        long id = segment.get(LONG, record + 1);
+        if (type == SCHEDULED) {
+            if (length < SCHEDULED_FIXED) {
+                return -1;
+            }
+            long dueTime = segment.get(LONG, record + 9);
+            int ordinal = segment.get(ValueLayout.JAVA_BYTE, record + 17);
+            int ownerLength = segment.get(INT, record + 18);
+            int pathLength = segment.get(INT, record + 22);
+            int hashLength = segment.get(INT, record + 26);
+            if (ordinal < 0 || ordinal >= Action.values().length || ownerLength < 0 || pathLength < 0 || hashLength < 0
+                    || (long) SCHEDULED_FIXED + ownerLength + pathLength + hashLength != length) {
+                return -1;
+            }
+            long strings = record + SCHEDULED_FIXED;
+            String owner = string(strings, ownerLength, StandardCharsets.UTF_8);
+            String path = string(strings + ownerLength, pathLength, StandardCharsets.UTF_8);
+            String hash = string(strings + ownerLength + pathLength, hashLength, StandardCharsets.US_ASCII);
+            try {
+                live.put(id, new Entry(id, owner, Path.of(path), hash, dueTime, Action.values()[ordinal]));
+            } catch (InvalidPathException e) {
+                return -1;
+            }
+        } else if (type == COMPLETED && length == COMPLETED_LENGTH) {
+            live.remove(id);
+        } else {
+            return -1;
+        }
+        nextId = Math.max(nextId, id + 1);
+        return record + length;
+    }
+
+    /**
+     * Copied out first, since the CRC can't read a buffer over the shared mapping.
+     */
+    private static int crc(MemorySegment bytes){
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.toArray(ValueLayout.JAVA_BYTE));
+        return (int) crc.getValue();
+    }
+
+    private String string(long offset, int length, Charset charset){
+        return new String(segment.asSlice(offset, length).toArray(ValueLayout.JAVA_BYTE), charset);
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = channel.tryLock();
+            if (lock == null) {
+                throw new IOException("Journal '" + file + "' is in use by another process");
+            }
+            if (channel.size() < HEADER_SIZE) {
+                map(MIN_MAPPING);
+                segment.set(INT, 0, MAGIC);
+                segment.set(LONG, END_OFFSET, HEADER_SIZE);
+            } else {
+                map(Math.max(MIN_MAPPING, channel.size()));
+                if (segment.get(INT, 0) != MAGIC) {
+                    throw new IOException("Not an action journal: " + file);
+                }
+            }
+            end = Math.max(HEADER_SIZE, Math.min(segment.get(LONG, END_OFFSET), channel.size()));
+        } catch (IOException | RuntimeException e) {
+            closeMapping();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the first {@code size} bytes, growing the file if it is shorter. Called holding the flush lock once the
+     * flusher is running.
+     */
+    private void map(long size) throws IOException {
+        Arena mapping = Arena.ofShared();
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, mapping);
+        } catch (IOException | RuntimeException e) {
+            mapping.close();
+            throw e;
+        }
+        if (arena != null) {
+            // Pages written through the old mapping are still in the page cache; the next commit forces them
+            dirty.set(true);
+            arena.close();
+        }
+        arena = mapping;
+    }
+
+    private void closeMapping(){
+        if (arena != null) {
+            MemorySegment current = segment;
+            current.force();
+            arena.close();
+            arena = null;
+            segment = null;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Stops the flusher and forces what is left. Pending actions stay in the journal for the next start.
+     */
+    @Override
+    public void close(){
+        flusher.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            synchronized (flushLock) {
+                closeMapping();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.monitor.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks after a delay. Scheduling returns a handle, a plain long, that cancels the task while it is pending.
+ */
+public interface ActionScheduler {
+    /**
+     * Schedules the task and returns its handle, which is never 0.
+     */
+    long schedule(Runnable task, long delay, TimeUnit timeUnit);
+
+    /**
+     * Cancels the task if it hasn't started yet. Returns false when it already ran, was cancelled or the handle
+     * is unknown.
+     */
+    boolean cancel(long handle);
+
+    /**
+     * Number of tasks waiting for their time.
+     */
+    int size();
+
+    void close();
+}
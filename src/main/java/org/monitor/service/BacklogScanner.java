@@ -0,0 +1,200 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.model.EventType;
+import org.monitor.model.MonitorListener;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes files that were already in a source folder before monitoring started.
+ * Entries are streamed with a {@link DirectoryStream} and go through the monitor's stability detector like watched
+ * files, since some may still be being written, before they are handed to the listener as {@link EventType#FILE}
+ * detections. At most {@code maxPending} files are waiting or being processed at a time across every scan sharing
+ * this scanner; listing pauses until there is room.
+ */
+public class BacklogScanner {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Semaphore permits;
+    private final long progressIntervalNanos;
+    private final ExecutorService scanExecutor;
+
+    public BacklogScanner(BacklogScanner.Builder builder) {
+        this.permits = new Semaphore(builder.maxPending);
+        this.progressIntervalNanos = builder.progressIntervalNanos;
+        this.scanExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "backlog-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static class Builder{
+        private int maxPending = 10_000;
+        private long progressIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+
+        /**
+         * Files waiting to settle or being processed at once. How many are hashed at once is up to the stability
+         * detector's reporter threads.
+         */
+        public Builder withMaxPending(int maxPending){
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        public Builder withProgressInterval(long interval, TimeUnit timeUnit){
+            this.progressIntervalNanos = timeUnit.toNanos(interval);
+            return this;
+        }
+
+        public BacklogScanner build(){
+            if(maxPending <= 0){
+                throw new IllegalArgumentException("Max pending must be positive");
+            }
+
+            return new BacklogScanner(this);
+        }
+    }
+
+    /**
+     * Scans the folder in the background. The future completes with the number of files handed to the listener
+     * once every one of them has been processed.
+     */
+    public CompletableFuture<Long> scan(Path folder, boolean recursive, FileSystemMonitor monitor, MonitorListener listener){
+        return CompletableFuture.supplyAsync(() -> run(folder, recursive, monitor, listener), scanExecutor);
+    }
+
+    private long run(Path folder, boolean recursive, FileSystemMonitor monitor, MonitorListener listener){
+        Progress progress = new Progress(folder);
+        logger.info("Scanning '{}' for files that arrived while not monitoring", folder);
+
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(folder);
+        try {
+            while (!directories.isEmpty()) {
+                Path directory = directories.pop();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path entry : stream) {
+                        BasicFileAttributes attributes;
+                        try {
+                            attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            continue; // gone since it was listed
+                        }
+
+                        if (attributes.isRegularFile()) {
+                            submit(entry, attributes.size(), monitor, listener, progress);
+                        } else if (recursive && attributes.isDirectory()) {
+                            directories.push(entry);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("[BacklogScanner] Unable to list '{}': {}", directory, e.getMessage());
+                }
+            }
+
+            progress.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Backlog scan of '{}' interrupted", folder);
+        }
+
+        progress.report(true);
+        return progress.files.get();
+    }
+
+    private void submit(Path file, long size, FileSystemMonitor monitor, MonitorListener listener, Progress progress) throws InterruptedException {
+        permits.acquire();
+        progress.started();
+        monitor.whenStable(file, stable -> {
+            try {
+                listener.onDetected(stable, EventType.FILE);
+                progress.completed(size);
+            } catch (RuntimeException e) {
+                logger.error("[BacklogScanner] Failed to process '{}': {}", stable, e.getMessage());
+            } finally {
+                progress.finished();
+                permits.release();
+            }
+        }, dropped -> {
+            progress.finished();
+            permits.release();
+        });
+
+        if (progress.due(progressIntervalNanos)) {
+            progress.report(false);
+        }
+    }
+
+    public void close(){
+        scanExecutor.shutdownNow();
+    }
+
+    private static final class Progress {
+        private final Path folder;
+        private final long start = System.nanoTime();
+        private final AtomicLong discovered = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong inFlight = new AtomicLong();
+        private long lastReport = start;
+
+        private Progress(Path folder) {
+            this.folder = folder;
+        }
+
+        private void started(){
+            discovered.incrementAndGet();
+            inFlight.incrementAndGet();
+        }
+
+        private void completed(long size){
+            files.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        private void finished(){
+            if (inFlight.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized void awaitIdle() throws InterruptedException {
+            while (inFlight.get() > 0) {
+                wait(1000);
+            }
+        }
+
+        private boolean due(long intervalNanos){
+            return System.nanoTime() - lastReport >= intervalNanos;
+        }
+
+        private void report(boolean done){
+            long now = System.nanoTime();
+            lastReport = now;
+            double seconds = Math.max(1e-3, (now - start) / 1e9);
+            logger.info("Backlog '{}' {}: {} of {} files, {} MB in {} s ({} files/s, {} MB/s)",
+                    folder, done ? "done" : "in progress", files.get(), discovered.get(), bytes.get() / (1024 * 1024),
+                    String.format("%.1f", seconds),
+                    String.format("%.0f", files.get() / seconds),
+                    String.format("%.1f", bytes.get() / (1024.0 * 1024.0) / seconds));
+        }
+    }
+}
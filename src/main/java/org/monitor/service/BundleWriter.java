@@ -0,0 +1,347 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.FileSync;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Archives small files by appending them to a rolling ZIP bundle instead of giving each its own file, which turns
+ * a create, write, rename and close per file into a sequential append. A bundle is sealed once it holds
+ * {@code maxBytes} or its first entry is {@code maxAge} old; until then it is a hidden {@code .part} file.
+ *
+ * <p>Entries are STORED, so an entry's bytes sit unchanged in the bundle. Sealing appends a line per entry to
+ * {@code bundles.index} in the folder, {@code bundle, offset, size, name} separated by tabs, with the offset of the
+ * entry's data; a reader can read a file straight from its bundle at that offset without parsing the ZIP.</p>
+ *
+ * <p>A file only counts as archived once its bundle is sealed and on disk, so {@link #append} takes a callback run
+ * then, and another run instead when the bundle fails: a write to it fails, which leaves the ZIP unusable, or sealing
+ * it does. The files are then handed back to whoever appended them to archive again. Bundles left unsealed by a crash
+ * are deleted on start; whoever journaled their files archives them again.</p>
+ */
+public class BundleWriter {
+    private static final Logger logger = LogManager.getLogger();
+    public static final String INDEX_FILE_NAME = "bundles.index";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private final Path folder;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final ScheduledExecutorService sealer;
+    private final Object sealLock = new Object();
+
+    // Guarded by this
+    private Bundle bundle;
+    private int sequence;
+    private boolean closed;
+
+    public BundleWriter(BundleWriter.Builder builder) throws IOException {
+        this.folder = builder.folder;
+        this.maxBytes = builder.maxBytes;
+        this.maxAgeMillis = builder.maxAgeMillis;
+        Files.createDirectories(folder);
+        deleteUnsealed();
+        this.sealer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bundle-sealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long check = Math.max(100, maxAgeMillis / 10);
+        this.sealer.scheduleWithFixedDelay(this::sealIfOld, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    public static class Builder{
+        private Path folder;
+        private long maxBytes = 256L * 1024 * 1024;
+        private long maxAgeMillis = TimeUnit.MINUTES.toMillis(5);
+
+        public Builder withFolder(Path folder){
+            this.folder = folder;
+            return this;
+        }
+
+        /**
+         * Size at which a bundle is sealed and the next one started.
+         */
+        public Builder withMaxBytes(long maxBytes){
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Longest a file waits in an open bundle, which is also how late its callback runs at most.
+         */
+        public Builder withMaxAge(long maxAge, TimeUnit timeUnit){
+            this.maxAgeMillis = timeUnit.toMillis(maxAge);
+            return this;
+        }
+
+        public BundleWriter build() throws IOException {
+            if(folder == null){
+                throw new IllegalArgumentException("Bundle folder must not be null");
+            }
+
+            if(maxBytes <= 0){
+                throw new IllegalArgumentException("Bundle size must be positive");
+            }
+
+            if(maxAgeMillis <= 0){
+                throw new IllegalArgumentException("Bundle age must be positive");
+            }
+
+            return new BundleWriter(this);
+        }
+    }
+
+    /**
+     * Appends {@code content} to the open bundle as {@code name} and runs {@code afterSeal} once that bundle is
+     * sealed, or {@code onFailed} if it can't be. A name already in the open bundle seals it first, so each bundle
+     * holds a name once.
+     *
+     * <p>If writing this file fails, the bundle is given up: the exception is thrown for this file, and
+     * {@code onFailed} runs for the files appended to the bundle before it.</p>
+     */
+    public void append(String name, byte[] content, FileTime lastModified, Runnable afterSeal, Runnable onFailed) throws IOException {
+        List<Bundle> sealed = new ArrayList<>(2);
+        Bundle broken = null;
+        IOException failure = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Bundle writer is closed");
+            }
+            if (bundle != null && bundle.names.contains(name)) {
+                sealed.add(unseal());
+            }
+            try {
+                if (bundle == null) {
+                    bundle = open();
+                }
+                bundle.append(name, content, lastModified, afterSeal, onFailed);
+                if (bundle.counter.count >= maxBytes) {
+                    sealed.add(unseal());
+                }
+            } catch (IOException e) {
+                broken = unseal();
+                failure = e;
+            }
+        }
+        for (Bundle full : sealed) {
+            seal(full);
+        }
+        if (failure != null) {
+            if (broken != null) {
+                fail(broken, failure);
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Seals the open bundle now, if there is one.
+     */
+    public void flush(){
+        Bundle sealed;
+        synchronized (this) {
+            sealed = unseal();
+        }
+        if (sealed != null) {
+            seal(sealed);
+        }
+    }
+
+    private void sealIfOld(){
+        Bundle sealed;
+        synchronized (this) {
+            if (bundle == null || System.currentTimeMillis() - bundle.opened < maxAgeMillis) {
+                return;
+            }
+            sealed = unseal();
+        }
+        seal(sealed);
+    }
+
+    /**
+     * Detaches the open bundle for sealing; the next append opens a new one.
+     */
+    private Bundle unseal(){
+        Bundle detached = bundle;
+        bundle = null;
+        return detached;
+    }
+
+    private Bundle open() throws IOException {
+        String name = "bundle-" + LocalDateTime.now().format(NAME_FORMAT) + "-" + (sequence++) + ".zip";
+        return new Bundle(folder.resolve(name));
+    }
+
+    /**
+     * Finishes the ZIP, makes it durable under its final name, indexes its entries and then runs their callbacks.
+     * Sealing is serialized, so index lines of different bundles don't interleave.
+     */
+    private void seal(Bundle sealed){
+        synchronized (sealLock) {
+            try {
+                sealed.zip.close();
+                FileSync.force(sealed.temporary);
+                Files.move(sealed.temporary, sealed.file, StandardCopyOption.ATOMIC_MOVE);
+                FileSync.forceDirectory(folder);
+
+                StringBuilder index = new StringBuilder();
+                for (Entry entry : sealed.entries) {
+                    index.append(sealed.file.getFileName()).append('\t').append(entry.offset()).append('\t')
+                            .append(entry.size()).append('\t').append(entry.name()).append('\n');
+                }
+                Path indexFile = folder.resolve(INDEX_FILE_NAME);
+                Files.writeString(indexFile, index, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                FileSync.force(indexFile);
+            } catch (IOException e) {
+                fail(sealed, e);
+                return;
+            }
+
+            logger.info("Sealed bundle '{}' with {} files, {} bytes", sealed.file, sealed.entries.size(), sealed.counter.count);
+            for (Entry entry : sealed.entries) {
+                try {
+                    entry.afterSeal().run();
+                } catch (RuntimeException e) {
+                    logger.error("Action after bundling '{}' failed", entry.name(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives up a bundle that can't be sealed: deletes what was written and hands its files back.
+     */
+    private void fail(Bundle failed, IOException cause){
+        logger.error("Bundle '{}' failed, handing its {} files back to be archived again: {}", failed.file, failed.entries.size(), cause.getMessage());
+        try {
+            // Below the ZIP, which would try to finish the entry it broke off
+            failed.counter.close();
+        } catch (IOException ignored) {
+            // Deleted next anyway
+        }
+        try {
+            Files.deleteIfExists(failed.temporary);
+        } catch (IOException e) {
+            logger.error("Unable to delete failed bundle '{}': {}", failed.temporary, e.getMessage());
+        }
+        for (Entry entry : failed.entries) {
+            try {
+                entry.onFailed().run();
+            } catch (RuntimeException e) {
+                logger.error("Action after failing to bundle '{}' failed", entry.name(), e);
+            }
+        }
+    }
+
+    private void deleteUnsealed() throws IOException {
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(folder, ".bundle-*.zip.part")) {
+            for (Path part : parts) {
+                logger.info("Deleting unsealed bundle '{}' left by a previous run", part);
+                Files.delete(part);
+            }
+        }
+    }
+
+    /**
+     * Seals the open bundle and stops the age check.
+     */
+    public void close(){
+        synchronized (this) {
+            closed = true;
+        }
+        // Not interrupted, since that would close a bundle's channel while it is being forced
+        sealer.shutdown();
+        try {
+            sealer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private record Entry(String name, long offset, long size, Runnable afterSeal, Runnable onFailed) {
+    }
+
+    private static final class Bundle {
+        private final Path file;
+        private final Path temporary;
+        private final long opened = System.currentTimeMillis();
+        private final CountingOutputStream counter;
+        private final ZipOutputStream zip;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+        private final CRC32 crc = new CRC32();
+
+        private Bundle(Path file) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling("." + file.getFileName() + ".part");
+            // Buffered below the count, so a ZIP header is one write rather than a write per field
+            this.counter = new CountingOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 256 * 1024));
+            this.zip = new ZipOutputStream(counter);
+            this.zip.setMethod(ZipOutputStream.STORED);
+        }
+
+        private void append(String name, byte[] content, FileTime lastModified, Runnable afterSeal, Runnable onFailed) throws IOException {
+            ZipEntry entry = new ZipEntry(name);
+            crc.reset();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+            entry.setTime(lastModified.toMillis());
+            zip.putNextEntry(entry);
+            // The local header is written, so the data starts here
+            long offset = counter.count;
+            zip.write(content);
+            zip.closeEntry();
+            entries.add(new Entry(name, offset, content.length, afterSeal, onFailed));
+            names.add(name);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.DirectorySnapshot;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-synchronises a directory with its {@link DirectorySnapshot} after the WatchService lost events.
+ * The directory is streamed in chunks, chunks are stat'ed in parallel and every entry that is new or changed
+ * compared to the snapshot is reported, so missed files can be fed back into the normal detection path.
+ * Runs entirely off the caller's thread; overlapping requests for the same directory are coalesced.
+ * Walks of whole new trees, found by an event or a reconciliation, run on the same threads.
+ */
+public class DirectoryReconciler {
+    private static final Logger logger = LogManager.getLogger();
+
+    @FunctionalInterface
+    public interface Listener {
+        void onChanged(Path entry, BasicFileAttributes attributes);
+    }
+
+    private final int chunkSize;
+    private final ExecutorService scanExecutor;
+    private final ExecutorService statExecutor;
+    private final Semaphore inFlightChunks;
+    // Directories with a scan in progress, and whether another pass was asked for meanwhile
+    private final Map<Path, ScanRequest> running = new ConcurrentHashMap<>();
+
+    public DirectoryReconciler(DirectoryReconciler.Builder builder) {
+        this.chunkSize = builder.chunkSize;
+        // Overflow is signalled on every key at once, so directory listings queue up rather than each getting a thread
+        this.scanExecutor = Executors.newFixedThreadPool(Math.max(1, builder.parallelism / 4), daemon("reconcile-scan"));
+        this.statExecutor = Executors.newFixedThreadPool(builder.parallelism, daemon("reconcile-stat"));
+        // Bounds memory: the scanner can only run this far ahead of the stat workers
+        this.inFlightChunks = new Semaphore(builder.parallelism * 2);
+    }
+
+    public static class Builder{
+        private int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private int chunkSize = 2048;
+
+        public Builder withParallelism(int parallelism){
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder withChunkSize(int chunkSize){
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        public DirectoryReconciler build(){
+            if(parallelism <= 0){
+                throw new IllegalArgumentException("Parallelism must be positive");
+            }
+
+            if(chunkSize <= 0){
+                throw new IllegalArgumentException("Chunk size must be positive");
+            }
+
+            return new DirectoryReconciler(this);
+        }
+    }
+
+    /**
+     * Loads the current contents of a directory into the snapshot without reporting anything.
+     */
+    public CompletableFuture<Integer> prime(Path directory, DirectorySnapshot snapshot){
+        return reconcile(directory, snapshot, null);
+    }
+
+    /**
+     * Diffs the directory against the snapshot, reporting new and changed entries to the listener.
+     * The returned future completes with the number of reported entries.
+     */
+    public CompletableFuture<Integer> reconcile(Path directory, DirectorySnapshot snapshot, Listener listener){
+        ScanRequest[] started = new ScanRequest[1];
+        running.compute(directory, (dir, existing) -> {
+            if (existing != null) {
+                existing.again = true;
+                if (listener != null) {
+                    existing.listener = listener;
+                }
+                return existing;
+            }
+            started[0] = new ScanRequest(listener);
+            return started[0];
+        });
+        ScanRequest request = started[0];
+        if (request == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            int reported = 0;
+            try {
+                boolean more;
+                do {
+                    reported += scan(directory, snapshot, request.listener);
+                    more = running.computeIfPresent(directory, (dir, current) -> {
+                        if (current.again) {
+                            current.again = false;
+                            return current;
+                        }
+                        return null;
+                    }) != null;
+                } while (more);
+            } catch (RuntimeException e) {
+                running.remove(directory);
+                throw e;
+            }
+            return reported;
+        }, scanExecutor);
+    }
+
+    /**
+     * Runs a walk of a directory tree on the scan threads, so a large tree moved in doesn't hold up the caller.
+     */
+    public CompletableFuture<Void> walk(Runnable walk){
+        return CompletableFuture.runAsync(walk, scanExecutor);
+    }
+
+    private int scan(Path directory, DirectorySnapshot snapshot, Listener listener){
+        long start = System.nanoTime();
+        AtomicInteger reported = new AtomicInteger();
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        snapshot.beginScan();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            List<Path> chunk = new ArrayList<>(chunkSize);
+            for (Path entry : stream) {
+                chunk.add(entry);
+                if (chunk.size() == chunkSize) {
+                    chunks.add(submitChunk(chunk, snapshot, listener, reported));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(submitChunk(chunk, snapshot, listener, reported));
+            }
+        } catch (IOException e) {
+            logger.error("[DirectoryReconciler] Unable to scan '{}': {}", directory, e.getMessage());
+            CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).join();
+            return reported.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return reported.get();
+        }
+
+        CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new)).join();
+        // Only prune after a complete listing, otherwise a failed scan would forget live entries
+        int removed = snapshot.removeUnseen().size();
+
+        if (listener != null) {
+            logger.info("Reconciled '{}' in {} ms: {} entries, {} new or changed, {} gone",
+                    directory, (System.nanoTime() - start) / 1_000_000, snapshot.size(), reported.get(), removed);
+        }
+        return reported.get();
+    }
+
+    private CompletableFuture<Void> submitChunk(List<Path> chunk, DirectorySnapshot snapshot, Listener listener,
+                                                AtomicInteger reported) throws InterruptedException {
+        inFlightChunks.acquire();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                for (Path entry : chunk) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue; // gone since it was listed
+                    }
+
+                    DirectorySnapshot.Change change = record(snapshot, entry, attributes);
+                    if (listener != null && change != DirectorySnapshot.Change.UNCHANGED) {
+                        reported.incrementAndGet();
+                        listener.onChanged(entry, attributes);
+                    }
+                }
+            } finally {
+                inFlightChunks.release();
+            }
+        }, statExecutor);
+    }
+
+    /**
+     * Records an entry whose attributes are already known.
+     */
+    public static DirectorySnapshot.Change record(DirectorySnapshot snapshot, Path entry, BasicFileAttributes attributes){
+        return snapshot.update(entry.getFileName().toString(), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), Objects.hashCode(attributes.fileKey()));
+    }
+
+    public boolean isClosed(){
+        return scanExecutor.isShutdown();
+    }
+
+    public void close(){
+        scanExecutor.shutdownNow();
+        statExecutor.shutdownNow();
+    }
+
+    private static final class ScanRequest {
+        private volatile Listener listener;
+        private volatile boolean again;
+
+        private ScanRequest(Listener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private static ThreadFactory daemon(String name){
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
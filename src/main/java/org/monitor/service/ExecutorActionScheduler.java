@@ -0,0 +1,70 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules on a plain {@link ScheduledExecutorService}, for services built with one.
+ */
+final class ExecutorActionScheduler implements ActionScheduler {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final ScheduledExecutorService executor;
+    private final AtomicLong handles = new AtomicLong();
+    private final Map<Long, ScheduledFuture<?>> futures = new ConcurrentHashMap<>();
+
+    ExecutorActionScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public long schedule(Runnable task, long delay, TimeUnit timeUnit){
+        long handle = handles.incrementAndGet();
+        ScheduledFuture<?> future = executor.schedule(() -> {
+            try {
+                task.run();
+            } finally {
+                futures.remove(handle);
+            }
+        }, delay, timeUnit);
+        futures.put(handle, future);
+        // It may have run before it was put
+        if (future.isDone()) {
+            futures.remove(handle);
+        }
+        return handle;
+    }
+
+    @Override
+    public boolean cancel(long handle){
+        ScheduledFuture<?> future = futures.remove(handle);
+        return future != null && future.cancel(false);
+    }
+
+    @Override
+    public int size(){
+        return futures.size();
+    }
+
+    @Override
+    public void close(){
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+                logger.error("Scheduler did not terminate in time, forced shutdown.");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            logger.error("Scheduler shutdown interrupted.");
+        }
+    }
+}
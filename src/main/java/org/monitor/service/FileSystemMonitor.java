@@ -4,26 +4,51 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monitor.model.EventType;
 import org.monitor.model.MonitorListener;
+import org.monitor.util.DirectorySnapshot;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
-public class FileSystemMonitor {
+public class FileSystemMonitor implements WatchSink {
     private static final Logger logger = LogManager.getLogger();
 
     private final List<MonitorListener> monitorListeners;
     private final Path monitoredPath;
-    private WatchService watchService;
+    private final boolean recursive;
+    // What has been seen in each watched directory, used to recover from OVERFLOW.
+    // Its keys are also the directories this monitor registered, released again on close.
+    private final Map<Path, DirectorySnapshot> snapshots = new ConcurrentHashMap<>();
+    private final boolean ownsStabilityDetector;
+    private final boolean ownsReconciler;
+    private final boolean ownsWatchBackend;
+    private StabilityDetector stabilityDetector;
+    private DirectoryReconciler reconciler;
+    private WatchBackend watchBackend;
+    // Stops walks of new trees still running on the reconciler once the monitor is closed
+    private volatile boolean closed;
 
     public FileSystemMonitor(FileSystemMonitor.Builder builder) {
         monitorListeners = builder.monitorListeners;
         this.monitoredPath = builder.monitoredPath;
+        this.recursive = builder.recursive;
+        this.stabilityDetector = builder.stabilityDetector;
+        this.ownsStabilityDetector = builder.stabilityDetector == null;
+        this.reconciler = builder.reconciler;
+        this.ownsReconciler = builder.reconciler == null;
+        this.watchBackend = builder.watchBackend;
+        this.ownsWatchBackend = builder.watchBackend == null;
 
         if(!Files.exists(monitoredPath) || !Files.isDirectory(monitoredPath)){
             logger.error("'{}' must exist and be a directory", monitoredPath);
@@ -32,17 +57,92 @@ public class FileSystemMonitor {
     }
 
     public void registerWatchService(){
+        if(ownsStabilityDetector && (stabilityDetector == null || stabilityDetector.isClosed())){
+            stabilityDetector = new StabilityDetector.Builder().build();
+        }
+        if(ownsReconciler && (reconciler == null || reconciler.isClosed())){
+            reconciler = new DirectoryReconciler.Builder().build();
+        }
         try{
-            this.watchService = FileSystems.getDefault().newWatchService();
-            this.monitoredPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            if(ownsWatchBackend){
+                this.watchBackend = new SharedWatchService();
+            }
+            closed = false;
+            snapshots.clear();
+            if(recursive){
+                registerTree(monitoredPath, false);
+            }else{
+                register(monitoredPath);
+            }
         } catch (IOException e) {
             logger.error("[FileSystemMonitor] Register Watch Service: {}", e.getMessage());
         }
     }
 
+    private void register(Path directory) throws IOException {
+        watchBackend.register(directory, this);
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        snapshots.put(directory, snapshot);
+        reconciler.prime(directory, snapshot);
+    }
+
+    /**
+     * Registers a directory and every subdirectory below it. When {@code submitFiles} is set, regular files
+     * already inside are handed to the stability detector, since they were written before the watch existed
+     * and will never produce an event of their own.
+     */
+    private void registerTree(Path start, boolean submitFiles) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (closed) {
+                    return FileVisitResult.TERMINATE;
+                }
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (submitFiles && attrs.isRegularFile()) {
+                    submit(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                logger.error("[FileSystemMonitor] Unable to register '{}': {}", file, exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Registers a directory created while monitoring, and the tree already inside it, on the reconciler's threads
+     * rather than the dispatch thread every monitor of the backend shares.
+     */
+    private void registerNewTree(Path directory){
+        try {
+            reconciler.walk(() -> {
+                try {
+                    registerTree(directory, true);
+                } catch (IOException e) {
+                    logger.error("[FileSystemMonitor] Unable to register new directory '{}': {}", directory, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closing
+        }
+    }
+
     public static class Builder{
         private List<MonitorListener> monitorListeners;
         private Path monitoredPath;
+        private StabilityDetector stabilityDetector;
+        private boolean recursive;
+        private DirectoryReconciler reconciler;
+        private WatchBackend watchBackend;
 
         public Builder withMonitoredPath(Path monitoredPath){
             this.monitoredPath = monitoredPath;
@@ -54,6 +154,40 @@ public class FileSystemMonitor {
             return this;
         }
 
+        /**
+         * Also watches every subdirectory, including ones created while monitoring.
+         */
+        public Builder withRecursive(boolean recursive){
+            this.recursive = recursive;
+            return this;
+        }
+
+        /**
+         * Shares a stability detector between monitors. When omitted the monitor creates its own.
+         */
+        public Builder withStabilityDetector(StabilityDetector stabilityDetector){
+            this.stabilityDetector = stabilityDetector;
+            return this;
+        }
+
+        /**
+         * Shares the OVERFLOW reconciler between monitors. When omitted the monitor creates its own.
+         */
+        public Builder withReconciler(DirectoryReconciler reconciler){
+            this.reconciler = reconciler;
+            return this;
+        }
+
+        /**
+         * Multiplexes this monitor onto a watch backend shared with other monitors. Its owner runs the dispatch
+         * loop, and {@link #startMonitoring()} returns right away. When omitted the monitor creates its own
+         * {@link SharedWatchService}.
+         */
+        public Builder withWatchBackend(WatchBackend watchBackend){
+            this.watchBackend = watchBackend;
+            return this;
+        }
+
         public FileSystemMonitor build() throws IOException {
             if(monitorListeners == null){
                 this.monitorListeners = new ArrayList<>();
@@ -73,83 +207,169 @@ public class FileSystemMonitor {
 
     /**
      * Starts the continuous monitoring of the directory.
-     * Processes only file creation events and schedules their movement.
+     * New files are handed to the stability detector, so event dispatch never waits on a file that is still
+     * being written. Modifications and deletions are passed on so pending actions can be rescheduled or cancelled.
+     * With a shared watch service this returns immediately; events arrive on the shared dispatch thread.
      */
     public void startMonitoring() {
-        logger.info("Monitoring '{}' for new entries", monitoredPath);
-        WatchKey key;
-        while (true) {
-            try {
-                // Retrieve the next queued watch key, waiting indefinitely
-                key = watchService.take();
-            } catch (InterruptedException x) {
-                //logger.error("Folder monitoring interrupted. Exiting.");
-                Thread.currentThread().interrupt(); // Restore the interrupted status
-                return;
+        logger.info("Monitoring '{}' for new entries{}", monitoredPath, recursive ? " (recursive)" : "");
+        if (ownsWatchBackend) {
+            watchBackend.run();
+        }
+    }
+
+    @Override
+    public void onEvent(Path directory, WatchEvent.Kind<?> kind, Path entry) {
+        // Handle overflow event (some events might have been lost)
+        if (kind == OVERFLOW) {
+            logger.error("Event overflow occurred in '{}'. Reconciling against last known state.", directory);
+            reconcile(directory);
+            return;
+        }
+
+        if (kind == ENTRY_MODIFY) {
+            if (Files.isRegularFile(entry)) {
+                monitorListeners.forEach(monitorListener -> monitorListener.onModified(entry));
             }
+            return;
+        }
 
-            // Iterate over all events for the retrieved key
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
+        if (kind == ENTRY_DELETE) {
+            DirectorySnapshot snapshot = snapshots.get(directory);
+            if (snapshot != null) {
+                snapshot.remove(entry.getFileName().toString());
+            }
+            monitorListeners.forEach(monitorListener -> monitorListener.onDeleted(entry));
+            return;
+        }
 
-                // Handle overflow event (some events might have been lost)
-                if (kind == OVERFLOW) {
-                    logger.error("Event overflow occurred. Some events might have been lost.");
-                    continue;
+        if (kind == ENTRY_CREATE) {
+            // Check if it's a regular file (not a directory)
+            // This is important because WatchService also fires events for directory creation
+            if (Files.isRegularFile(entry)) {
+                // Backends that report completed writes follow up with onWriteCompleted, no need to poll sizes
+                if (!watchBackend.reportsCompletedWrites()) {
+                    submit(entry);
                 }
-
-                // We are only interested in ENTRY_CREATE events
-                if (kind == ENTRY_CREATE) {
-                    Path createdFilePath = monitoredPath.resolve((Path) event.context()); // The name of the created file/directory
-                    // Check if it's a regular file (not a directory)
-                    // This is important because WatchService also fires events for directory creation
-                    if (Files.isRegularFile(createdFilePath)) {
-                        try {
-                            waitForFile(createdFilePath);
-                            notify(createdFilePath, EventType.FILE);
-                        } catch (IOException | InterruptedException e) {
-                            logger.error(e);
-                            throw new RuntimeException(e);
-                        }
-                    } else if (Files.isDirectory(createdFilePath)) {
-                        notify(createdFilePath, EventType.FOLDER);
-                    }
+            } else if (Files.isDirectory(entry)) {
+                if (recursive) {
+                    registerNewTree(entry);
                 }
+                record(entry);
+                notify(entry, EventType.FOLDER);
             }
+        }
+    }
 
-            // Reset the key. If the key is no longer valid, the loop will exit.
-            if (!key.reset()) {
-                logger.info("Watch key no longer valid. Monitored directory might have been deleted or unaccessible. Exiting monitoring.");
-                close();
-                monitorListeners.forEach(MonitorListener::onMonitorFailed);
-            }
+    /**
+     * Listeners hash the file, so it is reported on the stability detector's reporter threads rather than the
+     * dispatch thread every monitor of the backend shares.
+     */
+    @Override
+    public void onWriteCompleted(Path directory, Path entry) {
+        if (Files.isRegularFile(entry)) {
+            stabilityDetector.report(entry, this::detected);
         }
     }
 
-    private void notify(Path detectedPath, EventType eventType){
-        monitorListeners.forEach(monitorListener -> monitorListener.onDetected(detectedPath, eventType));
+    /**
+     * A subdirectory going away only drops its own key; losing the root is a failure.
+     */
+    @Override
+    public void onInvalid(Path directory) {
+        snapshots.remove(directory);
+        if (!directory.equals(monitoredPath)) {
+            logger.info("Stopped watching removed subdirectory '{}'", directory);
+            return;
+        }
+        logger.info("Watch key no longer valid. Monitored directory might have been deleted or unaccessible. Exiting monitoring.");
+        close();
+        monitorListeners.forEach(MonitorListener::onMonitorFailed);
+    }
+
+    /**
+     * Reports the file to the listeners again once it has stopped changing. Backends that report completed
+     * writes do that on their own, so the file is only handed to the stability detector for the others.
+     */
+    public void resubmit(Path file){
+        if (!watchBackend.reportsCompletedWrites()) {
+            submit(file);
+        }
+    }
+
+    private void submit(Path file){
+        stabilityDetector.submit(file, this::detected);
     }
 
     /**
-     * Waits until a file stops changing size (i.e., finished being written).
+     * Waits for a file found outside the watch, such as by the backlog scan, to stop changing like watched files
+     * do, then passes it to {@code onStable} rather than the listeners. {@code onDropped} gets it instead when it
+     * disappears first, or when the watch saw it change and reports it itself.
      */
-    private void waitForFile(Path file) throws IOException, InterruptedException {
-        long previousSize = -1L;
-        long currentSize = Files.size(file);
+    public void whenStable(Path file, Consumer<Path> onStable, Consumer<Path> onDropped){
+        stabilityDetector.submit(file, stablePath -> {
+            record(stablePath);
+            onStable.accept(stablePath);
+        }, onDropped);
+    }
 
-        // Keep looping until size stabilizes
-        while (previousSize != currentSize) {
-            previousSize = currentSize;
-            Thread.sleep(500); // half a second delay
-            currentSize = Files.size(file);
+    private void detected(Path file){
+        record(file);
+        notify(file, EventType.FILE);
+    }
+
+    /**
+     * Synthesizes the events lost to an OVERFLOW by diffing the directory against its snapshot.
+     */
+    private void reconcile(Path directory){
+        DirectorySnapshot snapshot = snapshots.get(directory);
+        if (snapshot == null) {
+            return;
         }
+        reconciler.reconcile(directory, snapshot, (entry, attributes) -> {
+            if (attributes.isRegularFile()) {
+                submit(entry);
+            } else if (attributes.isDirectory() && recursive && !snapshots.containsKey(entry)) {
+                registerNewTree(entry);
+                notify(entry, EventType.FOLDER);
+            }
+        });
     }
 
-    public void close(){
+    /**
+     * Remembers an entry that has been reported, so a later reconciliation doesn't report it again.
+     */
+    private void record(Path entry){
+        DirectorySnapshot snapshot = snapshots.get(entry.getParent());
+        if (snapshot == null) {
+            return;
+        }
         try {
-            watchService.close();
+            BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            DirectoryReconciler.record(snapshot, entry, attributes);
         } catch (IOException e) {
-            logger.error("[FileSystemMonitor] Error when closing WatchService: {}", e.getMessage());
+            snapshot.remove(entry.getFileName().toString());
+        }
+    }
+
+    private void notify(Path detectedPath, EventType eventType){
+        monitorListeners.forEach(monitorListener -> monitorListener.onDetected(detectedPath, eventType));
+    }
+
+    public void close(){
+        closed = true;
+        if(ownsStabilityDetector && stabilityDetector != null){
+            stabilityDetector.close();
+        }
+        if(ownsReconciler && reconciler != null){
+            reconciler.close();
+        }
+        if(ownsWatchBackend){
+            if(watchBackend != null){
+                watchBackend.close();
+            }
+        }else{
+            snapshots.keySet().forEach(directory -> watchBackend.unregister(directory, this));
         }
     }
 }
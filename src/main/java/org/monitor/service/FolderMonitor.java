@@ -4,10 +4,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.monitor.model.Action;
 import org.monitor.model.Config;
+import org.monitor.util.DirectorySnapshot;
 import org.monitor.util.FileHasher;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
 import static java.nio.file.StandardWatchEventKinds.*;
 
 import java.util.*;
@@ -25,6 +28,8 @@ public class FolderMonitor {
     private final int delayMinutes; // Delay before moving the file
     private final TimeUnit timeUnit;
     private final Action action;
+    private final DirectorySnapshot snapshot;
+    private final DirectoryReconciler reconciler;
     private static final String ALGORITHM = "MD5";
 
     /**
@@ -42,6 +47,8 @@ public class FolderMonitor {
         this.monitoredDir = Paths.get(config.sourceFolder());
         this.archiveDir = Paths.get(config.archiveFolder());
         this.scheduler = Executors.newSingleThreadScheduledExecutor(); // Single thread for scheduled tasks
+        this.snapshot = new DirectorySnapshot();
+        this.reconciler = new DirectoryReconciler.Builder().build();
 
         // Validate monitored directory
         if (!Files.exists(monitoredDir) || !Files.isDirectory(monitoredDir)) {
@@ -65,6 +72,7 @@ public class FolderMonitor {
 
         // Register the monitored directory for ENTRY_CREATE events only
         this.monitoredDir.register(watcher, ENTRY_CREATE);
+        this.reconciler.prime(monitoredDir, snapshot);
 
         logger.info("Monitoring directory for new files: '{}'", monitoredDir.toAbsolutePath());
         logger.info("Files will be archived from '{}' to '{}' after {} {}.", monitoredDir.toAbsolutePath(),
@@ -96,7 +104,12 @@ public class FolderMonitor {
 
                 // Handle overflow event (some events might have been lost)
                 if (kind == OVERFLOW) {
-                    logger.error("Event overflow occurred. Some events might have been lost.");
+                    logger.error("Event overflow occurred. Reconciling '{}' against last known state.", monitoredDir);
+                    reconciler.reconcile(monitoredDir, snapshot, (entry, attributes) -> {
+                        if (attributes.isRegularFile()) {
+                            onFileCreated(entry);
+                        }
+                    });
                     continue;
                 }
 
@@ -111,11 +124,7 @@ public class FolderMonitor {
                     // Check if it's a regular file (not a directory)
                     // This is important because WatchService also fires events for directory creation
                     if (Files.isRegularFile(createdFilePath)) {
-                        logger.info("[CREATED] Detected new file: {}", createdFilePath.toAbsolutePath());
-                        Optional<String> optional = FileHasher.hashFile(createdFilePath.toFile(), ALGORITHM);
-                        optional.ifPresent(fileHash -> {
-                            scheduleFileMove(createdFilePath, fileHash);
-                        });
+                        onFileCreated(createdFilePath);
                     } else if (Files.isDirectory(createdFilePath)) {
                         logger.info("[CREATED] Detected new directory (will not {}): {}", action.toString(), createdFilePath.toAbsolutePath());
                     }
@@ -131,7 +140,22 @@ public class FolderMonitor {
         }
     }
 
+    private void onFileCreated(Path createdFilePath){
+        logger.info("[CREATED] Detected new file: {}", createdFilePath.toAbsolutePath());
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(createdFilePath, BasicFileAttributes.class);
+            DirectoryReconciler.record(snapshot, createdFilePath, attributes);
+        } catch (IOException e) {
+            logger.error("Unable to read attributes of '{}': {}", createdFilePath, e.getMessage());
+        }
+        Optional<String> optional = FileHasher.hashFile(createdFilePath.toFile(), ALGORITHM);
+        optional.ifPresent(fileHash -> {
+            scheduleFileMove(createdFilePath, fileHash);
+        });
+    }
+
     public void shutdown(){
+        reconciler.close();
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -0,0 +1,171 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.FileSync;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes written files durable in batches: files handed to {@link #sync} collect for one interval, then the file
+ * systems they are on are synced once each and the callbacks of the whole batch run. Many small archives then
+ * share a sync instead of paying one each, at the cost of their callbacks, and with them the deletion of the
+ * sources, waiting up to an interval.
+ *
+ * <p>Where {@code syncfs} isn't available the files and their directories are forced one by one, still off the
+ * threads that wrote them.</p>
+ */
+public class GroupSync {
+    private static final Logger logger = LogManager.getLogger();
+
+    private record Waiter(Path file, Runnable afterSync) {
+    }
+
+    private final ScheduledExecutorService flusher;
+    // Guarded by this
+    private List<Waiter> batch = new ArrayList<>();
+    private boolean closed;
+
+    public GroupSync(GroupSync.Builder builder) {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "group-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, builder.intervalMillis, builder.intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static class Builder{
+        private long intervalMillis = 200;
+
+        /**
+         * How long written files collect before they are synced together.
+         */
+        public Builder withInterval(long interval, TimeUnit timeUnit){
+            this.intervalMillis = timeUnit.toMillis(interval);
+            return this;
+        }
+
+        public GroupSync build(){
+            if(intervalMillis <= 0){
+                throw new IllegalArgumentException("Sync interval must be positive");
+            }
+
+            return new GroupSync(this);
+        }
+    }
+
+    /**
+     * Runs {@code afterSync} on the sync thread once {@code file} and its directory entry are on disk. When they
+     * can't be synced, {@code afterSync} doesn't run and the failure is logged.
+     */
+    public void sync(Path file, Runnable afterSync){
+        synchronized (this) {
+            if (!closed) {
+                batch.add(new Waiter(file, afterSync));
+                return;
+            }
+        }
+        flush(List.of(new Waiter(file, afterSync)));
+    }
+
+    public synchronized int pending(){
+        return batch.size();
+    }
+
+    private void flush(){
+        List<Waiter> waiters;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            waiters = batch;
+            batch = new ArrayList<>();
+        }
+        flush(waiters);
+    }
+
+    private static void flush(List<Waiter> waiters){
+        // One file per store is enough to name it for syncfs
+        Map<FileStore, Path> stores = new LinkedHashMap<>();
+        Set<Waiter> unsynced = new HashSet<>();
+        for (Waiter waiter : waiters) {
+            try {
+                stores.putIfAbsent(Files.getFileStore(waiter.file()), waiter.file());
+            } catch (IOException e) {
+                unsynced.add(waiter);
+            }
+        }
+
+        Set<FileStore> failed = new LinkedHashSet<>();
+        for (Map.Entry<FileStore, Path> store : stores.entrySet()) {
+            try {
+                if (!FileSync.syncFileSystem(store.getValue())) {
+                    failed.add(store.getKey());
+                }
+            } catch (IOException e) {
+                failed.add(store.getKey());
+            }
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Waiter waiter : waiters) {
+            boolean synced = !unsynced.contains(waiter);
+            try {
+                if (synced && failed.contains(Files.getFileStore(waiter.file()))) {
+                    FileSync.force(waiter.file());
+                    if (directories.add(waiter.file().getParent())) {
+                        FileSync.forceDirectory(waiter.file().getParent());
+                    }
+                }
+            } catch (IOException e) {
+                synced = false;
+            }
+
+            if (!synced) {
+                logger.error("Unable to sync '{}' to disk, skipping what waited on it.", waiter.file());
+                continue;
+            }
+            try {
+                waiter.afterSync().run();
+            } catch (RuntimeException e) {
+                logger.error("Action after syncing '{}' failed", waiter.file(), e);
+            }
+        }
+    }
+
+    /**
+     * Syncs what is waiting and stops the sync thread. Later calls to {@link #sync} sync right away.
+     */
+    public void close(){
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(5, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            flusher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        List<Waiter> waiters;
+        synchronized (this) {
+            closed = true;
+            waiters = batch;
+            batch = new ArrayList<>();
+        }
+        flush(waiters);
+    }
+}
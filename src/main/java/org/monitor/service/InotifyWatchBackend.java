@@ -0,0 +1,323 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.Libc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Linux-only backend that talks to inotify directly through the Foreign Function &amp; Memory API.
+ * Unlike the JDK WatchService it subscribes to IN_CLOSE_WRITE and IN_MOVED_TO, so a file is reported
+ * the moment its writer closes it (or it is moved in complete) instead of after its size stops changing.
+ *
+ * <p>Requires native access to be enabled for this module ({@code --enable-native-access}).</p>
+ */
+public class InotifyWatchBackend implements WatchBackend {
+    private static final Logger logger = LogManager.getLogger();
+
+    // <sys/inotify.h>
+    private static final int IN_MODIFY = 0x00000002;
+    private static final int IN_CLOSE_WRITE = 0x00000008;
+    private static final int IN_MOVED_FROM = 0x00000040;
+    private static final int IN_MOVED_TO = 0x00000080;
+    private static final int IN_CREATE = 0x00000100;
+    private static final int IN_DELETE = 0x00000200;
+    private static final int IN_DELETE_SELF = 0x00000400;
+    private static final int IN_MOVE_SELF = 0x00000800;
+    private static final int IN_Q_OVERFLOW = 0x00004000;
+    private static final int IN_IGNORED = 0x00008000;
+    private static final int IN_ONLYDIR = 0x01000000;
+    private static final int IN_ISDIR = 0x40000000;
+    private static final int IN_NONBLOCK = 0x00000800;
+    private static final int IN_CLOEXEC = 0x00080000;
+    private static final int WATCH_MASK = IN_CREATE | IN_MODIFY | IN_CLOSE_WRITE | IN_MOVED_TO | IN_MOVED_FROM | IN_DELETE
+            | IN_DELETE_SELF | IN_MOVE_SELF | IN_ONLYDIR;
+
+    // <poll.h>
+    private static final short POLLIN = 0x0001;
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+
+    private static final int EVENT_HEADER_SIZE = 16; // struct inotify_event without its name
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final MethodHandle INOTIFY_INIT1 = Libc.downcall("inotify_init1",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), -1, true);
+    private static final MethodHandle INOTIFY_ADD_WATCH = Libc.downcall("inotify_add_watch",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT), -1, true);
+    private static final MethodHandle INOTIFY_RM_WATCH = Libc.downcall("inotify_rm_watch",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), -1, true);
+    private static final MethodHandle READ = Libc.downcall("read",
+            FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG), -1, true);
+    private static final MethodHandle POLL = Libc.downcall("poll",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT), -1, true);
+
+    private final int fd;
+    private final Map<Integer, Registration> registrations = new ConcurrentHashMap<>();
+    // Held while a watch is added and indexed, and while dispatch looks one up, so events for a directory
+    // registered a moment ago aren't skipped as unknown
+    private final Object registrationLock = new Object();
+    private final Map<Path, Integer> watchDescriptors = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private boolean running;
+
+    public InotifyWatchBackend() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("inotify is not available on this platform");
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment callState = arena.allocate(Libc.CALL_STATE);
+            this.fd = (int) INOTIFY_INIT1.invokeExact(callState, IN_NONBLOCK | IN_CLOEXEC);
+            if (fd < 0) {
+                throw new IOException("inotify_init1 failed, errno " + Libc.errno(callState));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("inotify_init1 failed", e);
+        }
+    }
+
+    /**
+     * Whether this JVM runs on Linux and the inotify functions could be linked.
+     */
+    public static boolean isSupported(){
+        return INOTIFY_INIT1 != null && INOTIFY_ADD_WATCH != null && INOTIFY_RM_WATCH != null
+                && READ != null && POLL != null && Libc.CLOSE != null;
+    }
+
+    @Override
+    public void register(Path directory, WatchSink sink) throws IOException {
+        synchronized (registrationLock) {
+            add(directory, sink);
+        }
+    }
+
+    private void add(Path directory, WatchSink sink) throws IOException {
+        int wd;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment callState = arena.allocate(Libc.CALL_STATE);
+            MemorySegment path = arena.allocateFrom(directory.toAbsolutePath().toString());
+            wd = (int) INOTIFY_ADD_WATCH.invokeExact(callState, fd, path, WATCH_MASK);
+            if (wd < 0) {
+                // ENOSPC here means fs.inotify.max_user_watches is exhausted
+                throw new IOException("inotify_add_watch failed for '" + directory + "', errno " + Libc.errno(callState));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("inotify_add_watch failed for '" + directory + "'", e);
+        }
+        watchDescriptors.put(directory, wd);
+        registrations.computeIfAbsent(wd, k -> new Registration(directory)).sinks.addIfAbsent(sink);
+    }
+
+    @Override
+    public void unregister(Path directory, WatchSink sink){
+        Integer wd = watchDescriptors.get(directory);
+        if (wd == null) {
+            return;
+        }
+        registrations.computeIfPresent(wd, (k, registration) -> {
+            registration.sinks.remove(sink);
+            if (registration.sinks.isEmpty()) {
+                watchDescriptors.remove(directory);
+                removeWatch(wd, directory);
+                return null;
+            }
+            return registration;
+        });
+    }
+
+    private void removeWatch(int wd, Path directory){
+        try (Arena arena = Arena.ofConfined()) {
+            int ignored = (int) INOTIFY_RM_WATCH.invokeExact(arena.allocate(Libc.CALL_STATE), fd, wd);
+        } catch (Throwable e) {
+            logger.error("[InotifyWatchBackend] inotify_rm_watch failed for '{}': {}", directory, e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean reportsCompletedWrites(){
+        return true;
+    }
+
+    @Override
+    public void run(){
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            running = true;
+        }
+        logger.info("Dispatching inotify events for {} directories", registrations.size());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buffer = arena.allocate(BUFFER_SIZE, 8);
+            MemorySegment pollFd = arena.allocate(8, 4); // struct pollfd { int fd; short events; short revents; }
+            MemorySegment callState = arena.allocate(Libc.CALL_STATE);
+            pollFd.set(ValueLayout.JAVA_INT, 0, fd);
+            pollFd.set(ValueLayout.JAVA_SHORT, 4, POLLIN);
+
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                // Poll with a timeout so close() and interrupts are noticed without a blocking read
+                int ready = (int) POLL.invokeExact(callState, pollFd, 1L, POLL_TIMEOUT_MILLIS);
+                if (ready <= 0) {
+                    if (ready < 0 && Libc.errno(callState) != EINTR) {
+                        logger.error("[InotifyWatchBackend] poll failed, errno {}", Libc.errno(callState));
+                        return;
+                    }
+                    continue;
+                }
+
+                long read = (long) READ.invokeExact(callState, fd, buffer, (long) BUFFER_SIZE);
+                if (read < 0) {
+                    int errno = Libc.errno(callState);
+                    if (errno == EAGAIN || errno == EINTR || closed) {
+                        continue;
+                    }
+                    logger.error("[InotifyWatchBackend] read failed, errno {}", errno);
+                    return;
+                }
+                dispatch(buffer, read);
+            }
+        } catch (Throwable e) {
+            if (!closed) {
+                logger.error("[InotifyWatchBackend] Dispatch loop failed: {}", e.getMessage(), e);
+            }
+        } finally {
+            // The descriptor is closed here rather than in close() so a concurrent read never sees it reused
+            synchronized (this) {
+                running = false;
+                closed = true;
+            }
+            closeDescriptor();
+        }
+    }
+
+    private void dispatch(MemorySegment buffer, long length){
+        long offset = 0;
+        while (offset + EVENT_HEADER_SIZE <= length) {
+            int wd = buffer.get(ValueLayout.JAVA_INT, offset);
+            int mask = buffer.get(ValueLayout.JAVA_INT, offset + 4);
+            int nameLength = buffer.get(ValueLayout.JAVA_INT, offset + 12);
+            String name = nameLength > 0 ? buffer.getString(offset + EVENT_HEADER_SIZE) : null;
+            offset += EVENT_HEADER_SIZE + nameLength;
+
+            if ((mask & IN_Q_OVERFLOW) != 0) {
+                // The kernel queue overflowed; every directory may have lost events
+                registrations.values().forEach(registration -> deliver(registration, OVERFLOW, null, false));
+                continue;
+            }
+
+            Registration registration;
+            synchronized (registrationLock) {
+                registration = registrations.get(wd);
+            }
+            if (registration == null) {
+                continue;
+            }
+
+            if ((mask & (IN_IGNORED | IN_DELETE_SELF | IN_MOVE_SELF)) != 0) {
+                if (registrations.remove(wd, registration)) {
+                    watchDescriptors.remove(registration.directory, wd);
+                    if ((mask & IN_MOVE_SELF) != 0) {
+                        // Still watched by the kernel, but under a path that no longer exists
+                        removeWatch(wd, registration.directory);
+                    }
+                    registration.sinks.forEach(sink -> invalidate(sink, registration.directory));
+                }
+                continue;
+            }
+
+            if (name == null) {
+                continue;
+            }
+            Path entry = registration.directory.resolve(name);
+            boolean directory = (mask & IN_ISDIR) != 0;
+
+            if ((mask & IN_CREATE) != 0 || (directory && (mask & IN_MOVED_TO) != 0)) {
+                deliver(registration, ENTRY_CREATE, entry, false);
+            } else if ((mask & (IN_CLOSE_WRITE | IN_MOVED_TO)) != 0) {
+                deliver(registration, null, entry, true);
+            } else if ((mask & (IN_DELETE | IN_MOVED_FROM)) != 0) {
+                deliver(registration, ENTRY_DELETE, entry, false);
+            } else if ((mask & IN_MODIFY) != 0) {
+                deliver(registration, ENTRY_MODIFY, entry, false);
+            }
+        }
+    }
+
+    private void deliver(Registration registration, WatchEvent.Kind<?> kind, Path entry, boolean completed){
+        for (WatchSink sink : registration.sinks) {
+            try {
+                if (completed) {
+                    sink.onWriteCompleted(registration.directory, entry);
+                } else {
+                    sink.onEvent(registration.directory, kind, entry);
+                }
+            } catch (RuntimeException e) {
+                logger.error("[InotifyWatchBackend] Failed to handle event for '{}': {}", entry, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void invalidate(WatchSink sink, Path directory){
+        try {
+            sink.onInvalid(directory);
+        } catch (RuntimeException e) {
+            logger.error("[InotifyWatchBackend] Failed to handle invalid watch for '{}': {}", directory, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close(){
+        boolean dispatching;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dispatching = running;
+        }
+        if (!dispatching) {
+            closeDescriptor();
+        }
+        registrations.clear();
+        watchDescriptors.clear();
+    }
+
+    private void closeDescriptor(){
+        try {
+            int ignored = (int) Libc.CLOSE.invokeExact(fd);
+        } catch (Throwable e) {
+            logger.error("[InotifyWatchBackend] Error when closing inotify descriptor: {}", e.getMessage());
+        }
+    }
+
+
+    private static final class Registration {
+        private final Path directory;
+        private final CopyOnWriteArrayList<WatchSink> sinks = new CopyOnWriteArrayList<>();
+
+        private Registration(Path directory) {
+            this.directory = directory;
+        }
+    }
+}
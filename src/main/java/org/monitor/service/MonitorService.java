@@ -2,32 +2,106 @@ package org.monitor.service;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monitor.model.Action;
 import org.monitor.model.Config;
+import org.monitor.model.DedupMode;
+import org.monitor.model.Durability;
 import org.monitor.model.EventType;
+import org.monitor.model.HashAlgorithm;
 import org.monitor.model.MonitorListener;
+import org.monitor.model.TransferMode;
+import org.monitor.util.CopyEngine;
+import org.monitor.util.DedupIndex;
+import org.monitor.util.DirectoryCache;
+import org.monitor.util.FanOutCopier;
 import org.monitor.util.FileHasher;
+import org.monitor.util.FileSync;
+import org.monitor.util.Fingerprinter;
+import org.monitor.util.HashCache;
+import org.monitor.util.Hasher;
+import org.monitor.util.ParallelGzip;
+import org.monitor.util.Throttle;
+import org.monitor.util.TransferEngine;
+import org.monitor.util.TreeHash;
+import org.monitor.util.TreeHasher;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MonitorService implements MonitorListener {
+    // How long an action whose lane is full waits before it is handed over again
+    private static final long LANE_FULL_RETRY_MILLIS = 250;
+    private static final DateTimeFormatter DATE_LAYOUT = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH");
+
     private final Logger logger;
     private final Config config;
     private final FileSystemMonitor fileSystemMonitor;
-    private final ScheduledExecutorService scheduledExecutorService;
+    private final ActionScheduler scheduler;
+    private final boolean ownsScheduler;
+    private final BacklogScanner backlogScanner;
+    private final boolean ownsBacklogScanner;
+    private final HashCache hashCache;
+    private final DedupIndex dedupIndex;
+    private final boolean ownsDedupIndex;
+    private final ActionJournal journal;
+    private final ActionExecutor actionExecutor;
+    private final boolean ownsActionExecutor;
+    private final GroupSync groupSync;
+    private final boolean ownsGroupSync;
+    private final BundleWriter bundleWriter;
+    private final boolean ownsBundleWriter;
+    // Actions scheduled but not yet run, so file events can cancel or reschedule them
+    private final Map<Path, PendingAction> pendingActions = new ConcurrentHashMap<>();
+    // Archive directories already created, so files going to the same shard don't create it again
+    private final DirectoryCache directories = new DirectoryCache(100_000);
     private int restartCounter;
 
     public MonitorService(MonitorService.Builder builder){
         this.config = builder.config;
         this.fileSystemMonitor = builder.fileSystemMonitor;
-        this.scheduledExecutorService = builder.scheduledExecutorService;
+        this.scheduler = builder.scheduler;
+        this.ownsScheduler = !builder.sharedScheduler;
         this.logger = builder.logger;
+        this.ownsBacklogScanner = builder.backlogScanner == null && config.scanExisting();
+        this.backlogScanner = ownsBacklogScanner ? new BacklogScanner.Builder().build() : builder.backlogScanner;
+        this.hashCache = builder.hashCache == null ? new HashCache(1024) : builder.hashCache;
+        this.ownsDedupIndex = builder.dedupIndex == null && config.dedup() != DedupMode.OFF;
+        this.dedupIndex = ownsDedupIndex ? openDedupIndex() : builder.dedupIndex;
+        this.journal = builder.journal;
+        this.ownsActionExecutor = builder.actionExecutor == null;
+        this.actionExecutor = ownsActionExecutor ? new ActionExecutor.Builder().build() : builder.actionExecutor;
+        this.ownsGroupSync = builder.groupSync == null && config.durability() == Durability.GROUP;
+        this.groupSync = ownsGroupSync ? new GroupSync.Builder().build() : builder.groupSync;
+        this.ownsBundleWriter = builder.bundleWriter == null && config.action() == Action.BUNDLE;
+        this.bundleWriter = ownsBundleWriter ? openBundleWriter() : builder.bundleWriter;
+        if (config.archiveParallelism() > 0) {
+            actionExecutor.ensureParallelism(actionFolder(), config.archiveParallelism());
+        }
+        if (config.archiveMebibytesPerSecond() > 0 || config.archiveIops() > 0) {
+            actionExecutor.limitBandwidth(Path.of(config.archiveFolder()), config.archiveMebibytesPerSecond() * 1024L * 1024, config.archiveIops());
+            for (String mirror : config.mirrorFolders()) {
+                actionExecutor.limitBandwidth(Path.of(mirror), config.archiveMebibytesPerSecond() * 1024L * 1024, config.archiveIops());
+            }
+        }
         this.fileSystemMonitor.addListener(this);
         restartCounter = 0;
     }
@@ -36,7 +110,15 @@ public class MonitorService implements MonitorListener {
         private Logger logger;
         private Config config;
         private FileSystemMonitor fileSystemMonitor;
-        private ScheduledExecutorService scheduledExecutorService;
+        private ActionScheduler scheduler;
+        private boolean sharedScheduler;
+        private BacklogScanner backlogScanner;
+        private HashCache hashCache;
+        private DedupIndex dedupIndex;
+        private ActionJournal journal;
+        private ActionExecutor actionExecutor;
+        private GroupSync groupSync;
+        private BundleWriter bundleWriter;
 
         public Builder withLogger(Logger logger){
             this.logger = logger;
@@ -54,7 +136,88 @@ public class MonitorService implements MonitorListener {
         }
 
         public Builder withScheduledExecutorService(ScheduledExecutorService scheduledExecutorService){
-            this.scheduledExecutorService = scheduledExecutorService;
+            this.scheduler = scheduledExecutorService == null ? null : new ExecutorActionScheduler(scheduledExecutorService);
+            this.sharedScheduler = false;
+            return this;
+        }
+
+        /**
+         * Uses a scheduler shared with other services. It is left running when this service shuts down.
+         */
+        public Builder withSharedScheduledExecutorService(ScheduledExecutorService scheduledExecutorService){
+            this.scheduler = scheduledExecutorService == null ? null : new ExecutorActionScheduler(scheduledExecutorService);
+            this.sharedScheduler = true;
+            return this;
+        }
+
+        /**
+         * Uses a scheduler shared with other services, such as a {@link TimingWheelScheduler} for large numbers
+         * of long delays. It is left running when this service shuts down.
+         */
+        public Builder withActionScheduler(ActionScheduler scheduler){
+            this.scheduler = scheduler;
+            this.sharedScheduler = true;
+            return this;
+        }
+
+        /**
+         * Shares the scanner used for files already present on startup, bounding total parallelism across configs.
+         */
+        public Builder withBacklogScanner(BacklogScanner backlogScanner){
+            this.backlogScanner = backlogScanner;
+            return this;
+        }
+
+        /**
+         * Shares the digest cache between services. When omitted the service keeps a small one of its own.
+         */
+        public Builder withHashCache(HashCache hashCache){
+            this.hashCache = hashCache;
+            return this;
+        }
+
+        /**
+         * Shares the archive's dedup index between services archiving to the same folder. When omitted and the
+         * config turns dedup on, the service opens the index in its archive folder itself.
+         */
+        public Builder withDedupIndex(DedupIndex dedupIndex){
+            this.dedupIndex = dedupIndex;
+            return this;
+        }
+
+        /**
+         * Journals scheduled actions so those still pending on shutdown are carried out after a restart.
+         * The journal may be shared and is left open when this service shuts down.
+         */
+        public Builder withJournal(ActionJournal journal){
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Shares the executor that runs due actions, so services writing to the same file store share its
+         * parallelism. When omitted the service keeps one of its own.
+         */
+        public Builder withActionExecutor(ActionExecutor actionExecutor){
+            this.actionExecutor = actionExecutor;
+            return this;
+        }
+
+        /**
+         * Shares the batched sync used by the GROUP durability. When omitted a service with that durability keeps
+         * one of its own.
+         */
+        public Builder withGroupSync(GroupSync groupSync){
+            this.groupSync = groupSync;
+            return this;
+        }
+
+        /**
+         * Shares the bundles of an archive folder between services bundling to it. When omitted a service with the
+         * BUNDLE action opens a writer for its archive folder itself.
+         */
+        public Builder withBundleWriter(BundleWriter bundleWriter){
+            this.bundleWriter = bundleWriter;
             return this;
         }
 
@@ -67,7 +230,7 @@ public class MonitorService implements MonitorListener {
                 throw new IllegalArgumentException("FileSystemMonitor must not be null");
             }
 
-            if(scheduledExecutorService == null){
+            if(scheduler == null){
                 throw new IllegalArgumentException("ScheduledExecutorService must not be null");
             }
 
@@ -81,13 +244,18 @@ public class MonitorService implements MonitorListener {
 
     public void startMonitor() throws IOException {
         this.fileSystemMonitor.registerWatchService();
+        recoverPending();
+        // Registered first, so nothing slips through between the scan and the first event
+        if (config.scanExisting()) {
+            backlogScanner.scan(Path.of(config.sourceFolder()), config.recursive(), fileSystemMonitor, this);
+        }
         this.fileSystemMonitor.startMonitoring();
     }
 
     @Override
     public void onDetected(Path detectedPath, EventType eventType) {
         if (Objects.requireNonNull(eventType) == EventType.FILE) {
-            Optional<String> optionalFileHash = FileHasher.hashFile(detectedPath.toFile(), FileHasher.ALGO_MD5);
+            Optional<String> optionalFileHash = hash(detectedPath);
             if(optionalFileHash.isPresent()){
                 schedule(detectedPath, optionalFileHash.get());
             }else{
@@ -96,6 +264,29 @@ public class MonitorService implements MonitorListener {
         }
     }
 
+    /**
+     * A file with a pending action changed: the action is dropped and the file is detected again (and rescheduled
+     * with its new hash) once it stops changing.
+     */
+    @Override
+    public void onModified(Path modifiedPath) {
+        PendingAction pendingAction = pendingActions.remove(modifiedPath);
+        if (pendingAction != null) {
+            finish(pendingAction);
+            logger.info("'{}' changed before {}, rescheduling once it settles.", modifiedPath.getFileName(), config.action().toString());
+            fileSystemMonitor.resubmit(modifiedPath);
+        }
+    }
+
+    @Override
+    public void onDeleted(Path deletedPath) {
+        PendingAction pendingAction = pendingActions.remove(deletedPath);
+        if (pendingAction != null) {
+            finish(pendingAction);
+            logger.info("[CANCELLED] '{}' was removed from source, cancelled {}.", deletedPath.getFileName(), config.action().toString());
+        }
+    }
+
     @Override
     public void onMonitorFailed() {
         logger.info("Restarting monitoring");
@@ -108,8 +299,14 @@ public class MonitorService implements MonitorListener {
     }
 
     private void schedule(Path filePath, String fileHash){
+        // A recovered action keeps its original due time when the startup scan finds the file unchanged
+        PendingAction pending = pendingActions.get(filePath);
+        if (pending != null && pending.recovered && pending.fileHash.equals(fileHash)) {
+            return;
+        }
+
         switch (config.action()){
-            case MOVE, COPY -> {
+            case MOVE, COPY, COMPRESS, BUNDLE -> {
                 logger.info("Scheduling {} for '{}' to archive in {} {}.", config.action().toString(), filePath.getFileName(), config.delay(), config.timeUnit().toString().toLowerCase());
             }
 
@@ -118,63 +315,779 @@ public class MonitorService implements MonitorListener {
             }
         }
 
-        scheduledExecutorService.schedule(() -> {
-            try {
-                // Construct the destination path in the archive directory
-                Path destinationPath = Path.of(config.archiveFolder()).resolve(filePath.getFileName());
-
-                /*
-                 Check if the file still exists in the source directory before moving.
-                 Files.exists might return true even though the file contents are now different.
-                 Checking against file hash will confirm we're still operating on the original file.
-                */
-                Optional<String> optional = FileHasher.hashFile(filePath.toFile(), FileHasher.ALGO_MD5);
-                if (Files.exists(filePath) && optional.isPresent()) {
-                    if(optional.get().equals(fileHash)){
-                        switch (config.action()) {
-                            case MOVE -> {
-                                Files.move(filePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                                logger.info("[MOVED] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
-                            }
+        long journalId = journal(filePath, fileHash, System.currentTimeMillis() + config.timeUnit().toMillis(config.delay()));
+        scheduleAction(new PendingAction(filePath, fileHash, journalId, false), config.delay(), config.timeUnit());
+    }
 
-                            case COPY -> {
-                                Files.copy(filePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
-                                logger.info("[COPY] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
-                            }
+    private void scheduleAction(PendingAction pendingAction, long delay, TimeUnit timeUnit){
+        // Detecting a file again replaces whatever was pending for it
+        PendingAction previous = pendingActions.put(pendingAction.filePath, pendingAction);
+        if (previous != null) {
+            finish(previous);
+        }
 
-                            case DELETE -> {
-                                Files.deleteIfExists(filePath);
-                                logger.info("[DELETE] Successfully deleted '{}'", filePath.getFileName());
-                            }
-                        }
-                    }else{
-                        logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+        pendingAction.handle = scheduler.schedule(pendingAction, delay, timeUnit);
+        if (pendingAction.cancelled) {
+            scheduler.cancel(pendingAction.handle);
+        }
+    }
+
+    /**
+     * Hands an action that came due to the action executor, unless it was cancelled or replaced in the meantime.
+     * The scheduler thread never does the file work itself.
+     */
+    private void fire(PendingAction pendingAction){
+        // Claim the action, so the events caused by carrying it out don't find it pending
+        if (pendingAction.cancelled || !pendingActions.remove(pendingAction.filePath, pendingAction)) {
+            return;
+        }
+        try {
+            if (!actionExecutor.submit(actionFolder(), () -> perform(pendingAction))) {
+                logger.debug("Actions on '{}' are backed up, retrying {} of '{}'", actionFolder(), config.action().toString(), pendingAction.filePath.getFileName());
+                retry(pendingAction, LANE_FULL_RETRY_MILLIS);
+            }
+        } catch (IllegalStateException | RejectedExecutionException e) {
+            // Still in the journal, so the next start runs it
+            logger.error("Unable to queue {} of '{}': {}", config.action().toString(), pendingAction.filePath.getFileName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Puts an action that was handed over but couldn't be carried out back to pending, to come due again after
+     * {@code delayMillis}: when the lane of its store is full, so the scheduler thread carries on with the actions
+     * for other stores instead of waiting for room, and when the bundle it went to failed.
+     */
+    private void retry(PendingAction pendingAction, long delayMillis){
+        if (pendingActions.putIfAbsent(pendingAction.filePath, pendingAction) != null) {
+            // Detected again in the meantime, and the newer action replaces this one
+            finish(pendingAction);
+            return;
+        }
+        pendingAction.handle = scheduler.schedule(pendingAction, delayMillis, TimeUnit.MILLISECONDS);
+        if (pendingAction.cancelled) {
+            scheduler.cancel(pendingAction.handle);
+        }
+    }
+
+    private void perform(PendingAction pendingAction){
+        Path filePath = pendingAction.filePath;
+        String fileHash = pendingAction.fileHash;
+        // Set when the action finishes later, on the group sync or bundle sealer, which then completes the journal
+        // entry, or when it didn't get to finish and is left in the journal for the next start
+        boolean deferred = false;
+        Path destinationPath = null;
+        try {
+            // Construct the destination path in the archive directory
+            destinationPath = resolveDestination(filePath);
+
+            if (config.action() == Action.COPY) {
+                // Verified while or after copying, see copy()
+                if (Files.exists(filePath)) {
+                    if (!deduplicate(filePath, destinationPath, fileHash)) {
+                        copy(filePath, destinationPath, fileHash);
+                    }
+                } else {
+                    logger.info("[SKIPPED] File '{}' no longer exists in source, skipping {}.",
+                            filePath.getFileName(), config.action().toString());
+                }
+                return;
+            }
+
+            if (config.action() == Action.COMPRESS || config.action() == Action.BUNDLE) {
+                if (Files.exists(filePath)) {
+                    if (config.action() == Action.COMPRESS) {
+                        compress(filePath, destinationPath, fileHash);
+                    } else {
+                        deferred = bundle(pendingAction, destinationPath);
                     }
                 } else {
                     logger.info("[SKIPPED] File '{}' no longer exists in source, skipping {}.",
                             filePath.getFileName(), config.action().toString());
                 }
+                return;
+            }
+
+            /*
+             Check if the file still exists in the source directory before moving.
+             Files.exists might return true even though the file contents are now different.
+             Checking against file hash will confirm we're still operating on the original file.
+             The cache only re-reads the file when its metadata changed since detection.
+            */
+            TreeHash treeHash = treeHash(filePath).orElse(null);
+            Optional<String> optional = treeHash != null ? Optional.of(treeHash.rootHex()) : hash(filePath);
+            if (Files.exists(filePath) && optional.isPresent()) {
+                if(optional.get().equals(fileHash)){
+                    if (config.action() != Action.DELETE) {
+                        directories.ensure(destinationPath.getParent());
+                    }
+                    switch (config.action()) {
+                        case MOVE -> {
+                            if (deduplicate(filePath, destinationPath, fileHash)) {
+                                Files.delete(filePath);
+                            } else {
+                                deferred = !move(pendingAction, destinationPath, treeHash);
+                            }
+                        }
+
+                        case DELETE -> {
+                            Files.deleteIfExists(filePath);
+                            logger.info("[DELETE] Successfully deleted '{}'", filePath.getFileName());
+                        }
+                    }
+                }else{
+                    logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+                }
+            } else {
+                logger.info("[SKIPPED] File '{}' no longer exists in source, skipping {}.",
+                        filePath.getFileName(), config.action().toString());
+            }
+        } catch (IOException e) {
+            // The directory may have been deleted since it was cached; the next attempt creates it again
+            if (destinationPath != null) {
+                directories.forget(destinationPath.getParent());
+            }
+            logger.error("Failed to {} '{}' | ", config.action().toString(), filePath.getFileName(), e);
+        } catch (Exception e) {
+            deferred = true;
+            logger.error(e);
+            throw new RuntimeException(e);
+        } finally {
+            if (journal != null && !deferred) {
+                journal.complete(pendingAction.journalId);
+            }
+        }
+    }
+
+    /**
+     * Folder on the store the action writes to, which decides the executor lane it runs in.
+     */
+    private Path actionFolder(){
+        return Path.of(config.action() == Action.DELETE ? config.sourceFolder() : config.archiveFolder());
+    }
+
+    /**
+     * Reschedules the actions this service journaled but didn't carry out before the last shutdown, at their
+     * original due time. Actions whose time has passed run right away.
+     */
+    private void recoverPending(){
+        if (journal == null) {
+            return;
+        }
+        int recovered = 0;
+        for (ActionJournal.Entry entry : journal.pending(journalOwner())) {
+            if (pendingActions.containsKey(entry.path())) {
+                continue;
+            }
+            if (entry.action() != config.action()) {
+                journal.complete(entry.id());
+                logger.info("Dropping journaled {} for '{}', the config now does {}.", entry.action().toString(), entry.path().getFileName(), config.action().toString());
+                continue;
+            }
+            long delay = Math.max(0, entry.dueTime() - System.currentTimeMillis());
+            scheduleAction(new PendingAction(entry.path(), entry.hash(), entry.id(), true), delay, TimeUnit.MILLISECONDS);
+            recovered++;
+        }
+        if (recovered > 0) {
+            logger.info("Recovered {} pending actions for '{}' from the journal", recovered, config.sourceFolder());
+        }
+    }
+
+    /**
+     * Returns the journal id of the scheduled action, or 0 when it isn't journaled.
+     */
+    private long journal(Path filePath, String fileHash, long dueTime){
+        if (journal == null) {
+            return 0;
+        }
+        try {
+            return journal.append(journalOwner(), filePath, fileHash, dueTime, config.action());
+        } catch (IOException e) {
+            logger.error("Unable to journal {} for '{}', it won't survive a restart: {}", config.action().toString(), filePath.getFileName(), e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Services sharing a journal tell their entries apart by source and archive folder.
+     */
+    private String journalOwner(){
+        return config.sourceFolder() + " -> " + config.archiveFolder();
+    }
+
+    /**
+     * Cancels an action that will no longer run and drops it from the journal.
+     */
+    private void finish(PendingAction pendingAction){
+        pendingAction.cancel();
+        if (journal != null) {
+            journal.complete(pendingAction.journalId);
+        }
+    }
+
+    public int pendingCount(){
+        return pendingActions.size();
+    }
+
+    /**
+     * Copies through a temporary file that only replaces the destination once verified. STREAM hashes the bytes as
+     * they are copied and compares them to the digest taken at detection; the other modes let the kernel clone or
+     * transfer the file and check that the source still has that digest afterwards, which the cache answers
+     * without reading it again unless the source changed meanwhile.
+     */
+    private void copy(Path filePath, Path destinationPath, String fileHash) throws IOException {
+        if (!config.mirrorFolders().isEmpty()) {
+            List<Path> written = fanOut(filePath, destinationPath, fileHash, false);
+            if (written != null && !written.isEmpty()) {
+                logger.info("[COPY] Successfully archived '{}' to {}", filePath.getFileName(), written);
+            }
+            return;
+        }
+        directories.ensure(destinationPath.getParent());
+        if (config.transfer() != TransferMode.STREAM) {
+            if (transfer(filePath, destinationPath, fileHash, false, config.verifyCopy())) {
+                logger.info("[COPY] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
+                recordArchived(destinationPath, fileHash);
+                writeManifest(treeHash(filePath).orElse(null), destinationPath);
+            } else {
+                logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+            }
+            return;
+        }
+        Hasher hasher = streamingHasher(filePath);
+        if (CopyEngine.copy(filePath, destinationPath, hasher, fileHash, false, throttle())) {
+            logger.info("[COPY] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
+            recordArchived(destinationPath, fileHash);
+            if (hasher instanceof TreeHasher.Streaming streaming) {
+                writeManifest(streaming.tree(), destinationPath);
+            }
+        } else {
+            logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+        }
+    }
+
+    /**
+     * Copies the file to the archive and to the same place in every mirror folder from a single read, hashing what
+     * was read like the STREAM transfer does. A mirror that can't be written is logged and left behind without
+     * failing the others. Returns the destinations now holding the file, or null when the source no longer matched
+     * its digest and nothing was written.
+     */
+    private List<Path> fanOut(Path filePath, Path destinationPath, String fileHash, boolean force) throws IOException {
+        Path archiveFolder = Path.of(config.archiveFolder());
+        List<Path> destinations = new ArrayList<>();
+        List<Throttle> throttles = new ArrayList<>();
+        directories.ensure(destinationPath.getParent());
+        destinations.add(destinationPath);
+        throttles.add(throttle());
+        for (String folder : config.mirrorFolders()) {
+            Path mirrored = Path.of(folder).resolve(archiveFolder.relativize(destinationPath));
+            try {
+                directories.ensure(mirrored.getParent());
             } catch (IOException e) {
-                logger.error("Failed to {} '{}' | ", config.action().toString(), filePath.getFileName(), e);
-            } catch (Exception e) {
-                logger.error(e);
-                throw new RuntimeException(e);
+                logger.error("Unable to mirror '{}' to '{}': {}", filePath.getFileName(), mirrored.toAbsolutePath(), e.getMessage());
+                continue;
+            }
+            destinations.add(mirrored);
+            throttles.add(actionExecutor.throttle(Path.of(folder)));
+        }
+
+        Hasher hasher = streamingHasher(filePath);
+        FanOutCopier.Result result = FanOutCopier.copy(filePath, destinations, throttles, hasher, fileHash,
+                config.fanOutBufferMegabytes() * 1024L * 1024, force);
+        if (!result.matched()) {
+            logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+            return null;
+        }
+        result.failed().forEach((destination, e) -> {
+            directories.forget(destination.getParent());
+            logger.error("Unable to archive '{}' to '{}': {}", filePath.getFileName(), destination.toAbsolutePath(), e.getMessage());
+        });
+        if (result.written().contains(destinationPath)) {
+            recordArchived(destinationPath, fileHash);
+        }
+        if (hasher instanceof TreeHasher.Streaming streaming) {
+            for (Path written : result.written()) {
+                writeManifest(streaming.tree(), written);
+            }
+        }
+        return result.written();
+    }
+
+    /**
+     * Copies to the archive share the throttle of its file store.
+     */
+    private Throttle throttle(){
+        return actionExecutor.throttle(Path.of(config.archiveFolder()));
+    }
+
+    /**
+     * Gzips the file into the archive as '{@code <name>.gz'}, verified by hashing what was read like the STREAM
+     * transfer does. Compressed files aren't deduplicated, since the index keys raw content.
+     */
+    private void compress(Path filePath, Path destinationPath, String fileHash) throws IOException {
+        directories.ensure(destinationPath.getParent());
+        Path compressed = destinationPath.resolveSibling(destinationPath.getFileName() + ".gz");
+        if (ParallelGzip.compress(filePath, compressed, config.compressionLevel(), config.compressionThreads(),
+                streamingHasher(filePath), fileHash, throttle())) {
+            logger.info("[COMPRESS] Successfully archived '{}' to '{}'", filePath.getFileName(), compressed.toAbsolutePath());
+        } else {
+            logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+        }
+    }
+
+    /**
+     * Appends a small file to the archive folder's open bundle, under its path relative to the archive, once its
+     * bytes hash to the digest taken at detection. Larger files are copied as usual. Returns true when the action
+     * finishes once the bundle is sealed.
+     */
+    private boolean bundle(PendingAction pendingAction, Path destinationPath) throws IOException {
+        Path filePath = pendingAction.filePath;
+        String fileHash = pendingAction.fileHash;
+        if (bundleWriter == null || size(filePath) >= config.bundleFileThreshold()) {
+            copy(filePath, destinationPath, fileHash);
+            return false;
+        }
+
+        FileTime lastModified = Files.getLastModifiedTime(filePath);
+        byte[] content = Files.readAllBytes(filePath);
+        Hasher hasher = streamingHasher(filePath);
+        hasher.update(content, 0, content.length);
+        if (!FileHasher.bytesToHex(hasher.digest()).equals(fileHash)) {
+            logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+            return false;
+        }
+
+        throttle().acquire(content.length);
+        String name = Path.of(config.archiveFolder()).relativize(destinationPath).toString().replace('\\', '/');
+        try {
+            bundleWriter.append(name, content, lastModified, () -> {
+                logger.info("[BUNDLED] Successfully archived '{}' as '{}'", filePath.getFileName(), name);
+                if (journal != null) {
+                    journal.complete(pendingAction.journalId);
+                }
+            }, () -> rebundle(pendingAction));
+        } catch (IllegalStateException e) {
+            // Shutting down: still in the journal, so the next start bundles it
+            logger.info("Bundles in '{}' are closed, leaving '{}' for the next start", config.archiveFolder(), filePath.getFileName());
+        }
+        return true;
+    }
+
+    /**
+     * The bundle holding the file failed after it was appended; it is bundled again after the usual delay.
+     */
+    private void rebundle(PendingAction pendingAction){
+        logger.warn("Bundling '{}' again in {} {}", pendingAction.filePath.getFileName(), config.delay(), config.timeUnit().toString().toLowerCase());
+        try {
+            retry(pendingAction, config.timeUnit().toMillis(config.delay()));
+        } catch (IllegalStateException | RejectedExecutionException e) {
+            // Still in the journal, so the next start runs it
+            logger.error("Unable to reschedule {} of '{}': {}", config.action().toString(), pendingAction.filePath.getFileName(), e.getMessage());
+        }
+    }
+
+    private BundleWriter openBundleWriter(){
+        try {
+            return new BundleWriter.Builder()
+                    .withFolder(Path.of(config.archiveFolder()))
+                    .withMaxBytes(config.bundleSize())
+                    .withMaxAge(config.bundleMaxAgeSeconds(), TimeUnit.SECONDS)
+                    .build();
+        } catch (IOException e) {
+            logger.error("Unable to open bundles in '{}', copying files one by one: {}", config.archiveFolder(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copies with the transfer engine. Returns false, leaving the destination as it was, when the source no longer
+     * has {@code fileHash} once copied, or when {@code verify} is set and the copy's own digest differs. Moves
+     * always verify, since the source is deleted afterwards and the kernel copied the bytes unseen.
+     */
+    private boolean transfer(Path filePath, Path destinationPath, String fileHash, boolean force, boolean verify) throws IOException {
+        TransferEngine.Strategy strategy = TransferEngine.copy(filePath, destinationPath, config.transfer() == TransferMode.LINK, force, throttle(),
+                copied -> hash(filePath).filter(fileHash::equals).isPresent()
+                        && (!verify || digest(copied).filter(fileHash::equals).isPresent()));
+        if (strategy != null) {
+            logger.debug("Archived '{}' by {}", filePath.getFileName(), strategy);
+        }
+        return strategy != null;
+    }
+
+    /**
+     * A rename within the file system. Across file systems the file is copied like {@link #copy} does, the copy is
+     * checked against the digest even without {@code verifyCopy}, and the source is only deleted once the copy is
+     * in place and as durable as the config asks: with FILE the copy and its directory entry are forced to disk
+     * first, with GROUP the deletion waits for the next group sync.
+     * Returns false when the action finishes later, on the group sync's thread.
+     */
+    private boolean move(PendingAction pendingAction, Path destinationPath, TreeHash treeHash) throws IOException {
+        Path filePath = pendingAction.filePath;
+        String fileHash = pendingAction.fileHash;
+        if (!config.mirrorFolders().isEmpty()) {
+            return moveMirrored(pendingAction, destinationPath);
+        }
+        try {
+            Files.move(filePath, destinationPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            boolean force = config.durability() == Durability.FILE;
+            boolean copied = config.transfer() == TransferMode.STREAM
+                    ? CopyEngine.copy(filePath, destinationPath, streamingHasher(filePath), fileHash, force, throttle())
+                    : transfer(filePath, destinationPath, fileHash, force, true);
+            if (!copied) {
+                logger.info("File Hash for '{}' doesn't match original. Skipping file.", filePath.getFileName());
+                return true;
+            }
+            recordArchived(destinationPath, fileHash);
+            writeManifest(treeHash, destinationPath);
+            if (config.durability() == Durability.GROUP) {
+                groupSync.sync(destinationPath, () -> {
+                    deleteMoved(filePath, destinationPath, fileHash);
+                    if (journal != null) {
+                        journal.complete(pendingAction.journalId);
+                    }
+                });
+                return false;
+            }
+            if (force) {
+                FileSync.forceDirectory(destinationPath.getParent());
+            }
+            deleteMoved(filePath, destinationPath, fileHash);
+            return true;
+        }
+        logger.info("[MOVED] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
+        recordArchived(destinationPath, fileHash);
+        writeManifest(treeHash, destinationPath);
+        return true;
+    }
+
+    /**
+     * With mirror folders a move can't be a rename, since the source has to be read for the mirrors anyway; it is
+     * copied to every folder and only deleted once all copies are in place and as durable as the config asks. When a
+     * copy fails the source stays. Returns false when the action finishes later, on the group sync's thread.
+     */
+    private boolean moveMirrored(PendingAction pendingAction, Path destinationPath) throws IOException {
+        Path filePath = pendingAction.filePath;
+        String fileHash = pendingAction.fileHash;
+        boolean force = config.durability() == Durability.FILE;
+        List<Path> written = fanOut(filePath, destinationPath, fileHash, force);
+        if (written == null) {
+            return true;
+        }
+        if (written.size() < config.mirrorFolders().size() + 1) {
+            logger.info("'{}' is missing from some archive folders, leaving it in the source.", filePath.getFileName());
+            return true;
+        }
+        // What was read matched, but the source goes for good, so every copy is read back before it does
+        for (Path copy : written) {
+            if (digest(copy).filter(fileHash::equals).isEmpty()) {
+                logger.error("Copy '{}' of '{}' doesn't match the original, leaving it in the source.", copy.toAbsolutePath(), filePath.getFileName());
+                return true;
+            }
+        }
+
+        if (config.durability() == Durability.GROUP) {
+            // The source goes once the last of the copies is synced
+            AtomicInteger unsynced = new AtomicInteger(written.size());
+            for (Path copy : written) {
+                groupSync.sync(copy, () -> {
+                    if (unsynced.decrementAndGet() == 0) {
+                        deleteMoved(filePath, destinationPath, fileHash);
+                        if (journal != null) {
+                            journal.complete(pendingAction.journalId);
+                        }
+                    }
+                });
+            }
+            return false;
+        }
+        if (force) {
+            for (Path copy : written) {
+                FileSync.forceDirectory(copy.getParent());
+            }
+        }
+        deleteMoved(filePath, destinationPath, fileHash);
+        return true;
+    }
+
+    /**
+     * Deletes the source of a copied move, unless it changed since it was copied.
+     */
+    private void deleteMoved(Path filePath, Path destinationPath, String fileHash){
+        if (hash(filePath).filter(fileHash::equals).isEmpty()) {
+            logger.info("'{}' changed after it was archived to '{}', leaving it in the source.", filePath.getFileName(), destinationPath.toAbsolutePath());
+            return;
+        }
+        try {
+            Files.delete(filePath);
+            logger.info("[MOVED] Successfully archived '{}' to '{}'", filePath.getFileName(), destinationPath.toAbsolutePath());
+        } catch (IOException e) {
+            logger.error("Archived '{}' to '{}' but couldn't delete it from the source: {}", filePath.getFileName(), destinationPath.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Archives the file by reference when the dedup index knows identical content: SKIP leaves the archive as it is,
+     * LINK hard-links the archived file to the destination. Returns false when the content is new or can't be
+     * linked, leaving the caller to archive it the usual way.
+     */
+    private boolean deduplicate(Path filePath, Path destinationPath, String fileHash) throws IOException {
+        // The index only knows the archive folder, so a file found there would still be missing from the mirrors
+        if (dedupIndex == null || !config.mirrorFolders().isEmpty()) {
+            return false;
+        }
+        long size = size(filePath);
+        Optional<Path> existing = dedupIndex.lookup(dedupKey(size, fileHash));
+        if (existing.isEmpty() || !sameContent(filePath, existing.get(), size, fileHash)) {
+            return false;
+        }
+
+        Path archived = existing.get();
+        boolean linked = Files.exists(destinationPath) && Files.isSameFile(archived, destinationPath);
+        if (config.dedup() == DedupMode.LINK && !linked) {
+            directories.ensure(destinationPath.getParent());
+            // Linked under a temporary name and renamed, so an existing destination is replaced atomically
+            Path link = destinationPath.resolveSibling("." + destinationPath.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".link");
+            try {
+                Files.createLink(link, archived);
+                Files.move(link, destinationPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.deleteIfExists(link);
+                logger.info("Unable to link '{}' to '{}', archiving a copy: {}", destinationPath, archived, e.getMessage());
+                return false;
+            }
+            logger.info("[LINKED] '{}' is already archived as '{}', linked to '{}'", filePath.getFileName(), archived, destinationPath.toAbsolutePath());
+            return true;
+        }
+        logger.info("[DEDUP] '{}' is already archived as '{}', not archiving it again.", filePath.getFileName(), archived);
+        return true;
+    }
+
+    /**
+     * Whether the archived file still holds the source's content. A full MD5 digest is trusted, so both sides are
+     * only compared by digest, which the cache usually has. Non-cryptographic digests and fingerprints can collide,
+     * so those are compared byte for byte.
+     */
+    private boolean sameContent(Path filePath, Path archived, long size, String fileHash) throws IOException {
+        if (!Files.isRegularFile(archived) || Files.size(archived) != size) {
+            return false;
+        }
+        if (config.hashAlgorithm() == HashAlgorithm.MD5 && !usesFingerprint(size)) {
+            return hash(filePath).filter(fileHash::equals).isPresent() && hash(archived).filter(fileHash::equals).isPresent();
+        }
+        return Files.mismatch(filePath, archived) == -1L;
+    }
+
+    private void recordArchived(Path destinationPath, String fileHash){
+        if (dedupIndex == null) {
+            return;
+        }
+        try {
+            dedupIndex.put(dedupKey(size(destinationPath), fileHash), destinationPath);
+        } catch (IOException e) {
+            logger.error("Unable to record '{}' in the dedup index: {}", destinationPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Digests are only comparable for the same algorithm and size, so both are part of the key.
+     */
+    private String dedupKey(long size, String fileHash){
+        return config.hashAlgorithm() + ":" + size + ":" + fileHash;
+    }
+
+    private DedupIndex openDedupIndex(){
+        Path indexFile = Path.of(config.archiveFolder()).resolve(".dedup-index");
+        try {
+            Files.createDirectories(indexFile.getParent());
+            return DedupIndex.open(indexFile);
+        } catch (IOException e) {
+            logger.error("Unable to open dedup index '{}', archiving without it: {}", indexFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Huge files can be fingerprinted by sampling; otherwise files at or above the tree threshold are hashed as a
+     * tree of chunks in parallel, and the rest in full.
+     */
+    private Optional<String> hash(Path file){
+        long size = size(file);
+        if (usesFingerprint(size)) {
+            return hashCache.fingerprint(file, config.hashAlgorithm());
+        }
+        if (usesTreeHash(size)) {
+            return hashCache.treeHash(file, config.hashAlgorithm(), TreeHasher.DEFAULT_CHUNK_SIZE).map(TreeHash::rootHex);
+        }
+        return hashCache.hash(file, config.hashAlgorithm());
+    }
+
+    /**
+     * Same digest as {@link #hash}, always read from the file, for checking a copy the cache knows nothing about.
+     */
+    private Optional<String> digest(Path file){
+        long size = size(file);
+        if (usesFingerprint(size)) {
+            return Fingerprinter.fingerprint(file, config.hashAlgorithm());
+        }
+        if (usesTreeHash(size)) {
+            return TreeHasher.hash(file, config.hashAlgorithm(), TreeHasher.DEFAULT_CHUNK_SIZE).map(TreeHash::rootHex);
+        }
+        return FileHasher.hashFile(file, config.hashAlgorithm());
+    }
+
+    private Optional<TreeHash> treeHash(Path file){
+        long size = size(file);
+        if (usesFingerprint(size) || !usesTreeHash(size)) {
+            return Optional.empty();
+        }
+        return hashCache.treeHash(file, config.hashAlgorithm(), TreeHasher.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * A hasher that gives the same digest as {@link #hash} when fed the whole file, for hashing while copying.
+     */
+    private Hasher streamingHasher(Path file){
+        long size = size(file);
+        if (usesFingerprint(size)) {
+            return Fingerprinter.streaming(size, config.hashAlgorithm());
+        }
+        if (usesTreeHash(size)) {
+            return TreeHasher.streaming(config.hashAlgorithm(), TreeHasher.DEFAULT_CHUNK_SIZE);
+        }
+        return Hasher.create(config.hashAlgorithm());
+    }
+
+    private boolean usesFingerprint(long size){
+        return config.fingerprintThreshold() > 0 && size >= config.fingerprintThreshold();
+    }
+
+    private boolean usesTreeHash(long size){
+        return config.treeHashThreshold() > 0 && size >= config.treeHashThreshold();
+    }
+
+    private static long size(Path file){
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Keeps the leaf digests of a tree-hashed file beside its archived copy, so the copy can later be
+     * re-checked chunk by chunk.
+     */
+    private void writeManifest(TreeHash treeHash, Path destinationPath){
+        if (treeHash == null) {
+            return;
+        }
+        Path manifest = destinationPath.resolveSibling(destinationPath.getFileName() + ".treehash");
+        try {
+            treeHash.write(manifest);
+        } catch (IOException e) {
+            logger.error("Unable to write tree hash manifest '{}': {}", manifest, e.getMessage());
+        }
+    }
+
+    /**
+     * Files found in subdirectories of a recursive source keep their relative path below their shard of the
+     * archive, so equally named files from different subfolders don't overwrite each other.
+     */
+    private Path resolveDestination(Path filePath){
+        Path sourceFolder = Path.of(config.sourceFolder());
+        Path shard = shard(filePath);
+        if (config.recursive() && filePath.startsWith(sourceFolder)) {
+            return shard.resolve(sourceFolder.relativize(filePath));
+        }
+        return shard.resolve(filePath.getFileName());
+    }
+
+    /**
+     * Folder of the archive the file goes to under the configured layout, so no single folder collects every file.
+     */
+    private Path shard(Path filePath){
+        Path archiveFolder = Path.of(config.archiveFolder());
+        return switch (config.layout()) {
+            case FLAT -> archiveFolder;
+            case DATE -> {
+                LocalDateTime modified;
+                try {
+                    modified = LocalDateTime.ofInstant(Files.getLastModifiedTime(filePath).toInstant(), ZoneId.systemDefault());
+                } catch (IOException e) {
+                    modified = LocalDateTime.now();
+                }
+                yield archiveFolder.resolve(modified.format(DATE_LAYOUT));
+            }
+            case HASH_PREFIX -> {
+                Hasher hasher = Hasher.create(HashAlgorithm.XXH64);
+                byte[] name = filePath.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+                hasher.update(name, 0, name.length);
+                String hex = FileHasher.bytesToHex(hasher.digest());
+                yield archiveFolder.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4));
             }
-        }, config.delay(), config.timeUnit());
+            case SOURCE -> archiveFolder.resolve(Path.of(config.sourceFolder()).toAbsolutePath().normalize().getFileName().toString());
+        };
     }
 
+    /**
+     * Stops watching and scheduling, lets the executor finish what it has, and only then closes what its actions
+     * write to.
+     */
     public void shutdown(){
         fileSystemMonitor.close();
-        scheduledExecutorService.shutdown();
-        try {
-            if (!scheduledExecutorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduledExecutorService.shutdownNow();
-                logger.error("Scheduler did not terminate in time, forced shutdown.");
-            }
-        } catch (InterruptedException e) {
-            scheduledExecutorService.shutdownNow();
-            Thread.currentThread().interrupt();
-            logger.error("Scheduler shutdown interrupted.");
+        if (ownsBacklogScanner) {
+            backlogScanner.close();
+        }
+        if (ownsScheduler) {
+            scheduler.close();
+        }
+        if (ownsActionExecutor) {
+            actionExecutor.close();
+        }
+        // After the executor, whose actions record to the index, append to bundles and wait on group syncs; so
+        // moves it finished still get their sources deleted
+        if (ownsDedupIndex && dedupIndex != null) {
+            dedupIndex.close();
+        }
+        if (ownsBundleWriter && bundleWriter != null) {
+            bundleWriter.close();
+        }
+        if (ownsGroupSync) {
+            groupSync.close();
+        }
+    }
+
+    /**
+     * The scheduled task itself, so a pending file costs this object and its map entry.
+     */
+    private final class PendingAction implements Runnable {
+        private final Path filePath;
+        private final String fileHash;
+        private final long journalId;
+        // Replayed from the journal rather than detected in this run
+        private final boolean recovered;
+        private volatile long handle;
+        private volatile boolean cancelled;
+
+        private PendingAction(Path filePath, String fileHash, long journalId, boolean recovered) {
+            this.filePath = filePath;
+            this.fileHash = fileHash;
+            this.journalId = journalId;
+            this.recovered = recovered;
+        }
+
+        @Override
+        public void run(){
+            fire(this);
+        }
+
+        private void cancel(){
+            cancelled = true;
+            long scheduled = handle;
+            if (scheduled != 0) {
+                scheduler.cancel(scheduled);
+            }
         }
     }
 }
@@ -0,0 +1,276 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.util.DirectorySnapshot;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Watches directories by listing them periodically, for network mounts (NFS, CIFS) where changes made by remote
+ * clients never produce WatchService events. Each directory keeps a {@link DirectorySnapshot} that successive scans
+ * are diffed against. A file that has not changed between two scans is reported as a completed write.
+ * <p>
+ * The interval adapts per directory: it drops to the minimum as soon as a scan finds changes and doubles with every
+ * idle scan up to the maximum.
+ */
+public class PollingWatchBackend implements WatchBackend {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final Map<Path, Registration> registrations = new ConcurrentHashMap<>();
+    private final Object signal = new Object();
+    private volatile boolean closed;
+
+    public PollingWatchBackend(PollingWatchBackend.Builder builder) {
+        this.minIntervalNanos = builder.minIntervalNanos;
+        this.maxIntervalNanos = builder.maxIntervalNanos;
+    }
+
+    public static class Builder{
+        private long minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(250);
+        private long maxIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+
+        public Builder withMinInterval(long interval, TimeUnit timeUnit){
+            this.minIntervalNanos = timeUnit.toNanos(interval);
+            return this;
+        }
+
+        public Builder withMaxInterval(long interval, TimeUnit timeUnit){
+            this.maxIntervalNanos = timeUnit.toNanos(interval);
+            return this;
+        }
+
+        public PollingWatchBackend build(){
+            if(minIntervalNanos <= 0){
+                throw new IllegalArgumentException("Minimum poll interval must be positive");
+            }
+            // A maximum below the minimum just means a fixed interval
+            maxIntervalNanos = Math.max(maxIntervalNanos, minIntervalNanos);
+
+            return new PollingWatchBackend(this);
+        }
+    }
+
+    @Override
+    public void register(Path directory, WatchSink sink) throws IOException {
+        Registration registration = registrations.get(directory);
+        if (registration == null) {
+            // Take the baseline before the directory is visible to the poller, so existing entries are not reported
+            Registration created = new Registration(directory);
+            scan(created, false);
+            created.nextPoll = System.nanoTime() + minIntervalNanos;
+            registration = registrations.putIfAbsent(directory, created);
+            if (registration == null) {
+                registration = created;
+                wakeUp();
+            }
+        }
+        registration.sinks.addIfAbsent(sink);
+    }
+
+    @Override
+    public void unregister(Path directory, WatchSink sink){
+        registrations.computeIfPresent(directory, (path, registration) -> {
+            registration.sinks.remove(sink);
+            return registration.sinks.isEmpty() ? null : registration;
+        });
+    }
+
+    @Override
+    public boolean reportsCompletedWrites(){
+        return true;
+    }
+
+    public int size(){
+        return registrations.size();
+    }
+
+    @Override
+    public void run(){
+        logger.info("Polling {} directories every {} to {} ms", registrations.size(),
+                TimeUnit.NANOSECONDS.toMillis(minIntervalNanos), TimeUnit.NANOSECONDS.toMillis(maxIntervalNanos));
+        while (!closed) {
+            long now = System.nanoTime();
+            long next = now + maxIntervalNanos;
+            for (Registration registration : registrations.values()) {
+                if (registration.nextPoll - now <= 0) {
+                    poll(registration);
+                    now = System.nanoTime();
+                }
+                if (registration.nextPoll - next < 0) {
+                    next = registration.nextPoll;
+                }
+            }
+
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime());
+            if (waitMillis > 0) {
+                try {
+                    synchronized (signal) {
+                        signal.wait(waitMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Restore the interrupted status
+                    return;
+                }
+            }
+        }
+    }
+
+    private void poll(Registration registration){
+        boolean changed;
+        try {
+            changed = scan(registration, true);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            invalidate(registration);
+            return;
+        } catch (IOException e) {
+            // Network mounts drop out now and then; keep the snapshot and try again later
+            logger.error("[PollingWatchBackend] Unable to list '{}': {}", registration.directory, e.getMessage());
+            changed = false;
+        }
+
+        if (changed || !registration.unsettled.isEmpty()) {
+            registration.interval = minIntervalNanos;
+        } else {
+            registration.interval = Math.min(registration.interval << 1, maxIntervalNanos);
+        }
+        registration.nextPoll = System.nanoTime() + registration.interval;
+    }
+
+    /**
+     * Lists the directory and diffs it against the snapshot, dispatching the differences when {@code dispatch} is set.
+     * Returns whether anything changed since the previous scan.
+     */
+    private boolean scan(Registration registration, boolean dispatch) throws IOException {
+        Path directory = registration.directory;
+        DirectorySnapshot snapshot = registration.snapshot;
+        Set<String> settling = new HashSet<>();
+        boolean changed = false;
+
+        snapshot.beginScan();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue; // gone since it was listed, picked up as removed by the next scan
+                }
+
+                String name = entry.getFileName().toString();
+                DirectorySnapshot.Change change = DirectoryReconciler.record(snapshot, entry, attributes);
+                if (!dispatch) {
+                    continue;
+                }
+
+                switch (change) {
+                    case ADDED -> {
+                        changed = true;
+                        dispatch(registration, ENTRY_CREATE, entry);
+                        if (attributes.isRegularFile()) {
+                            settling.add(name);
+                        }
+                    }
+                    case MODIFIED -> {
+                        changed = true;
+                        dispatch(registration, ENTRY_MODIFY, entry);
+                        if (attributes.isRegularFile()) {
+                            settling.add(name);
+                        }
+                    }
+                    case UNCHANGED -> {
+                        // Unchanged for a whole interval since it last moved: the writer is done with it
+                        if (registration.unsettled.contains(name) && attributes.isRegularFile()) {
+                            for (WatchSink sink : registration.sinks) {
+                                try {
+                                    sink.onWriteCompleted(directory, entry);
+                                } catch (RuntimeException e) {
+                                    logger.error("[PollingWatchBackend] Failed to handle completed write of '{}': {}", entry, e.getMessage(), e);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> removed = snapshot.removeUnseen();
+        if (dispatch) {
+            for (String name : removed) {
+                changed = true;
+                dispatch(registration, ENTRY_DELETE, directory.resolve(name));
+            }
+        }
+        registration.unsettled = settling;
+        return changed;
+    }
+
+    private void dispatch(Registration registration, WatchEvent.Kind<?> kind, Path entry){
+        for (WatchSink sink : registration.sinks) {
+            try {
+                sink.onEvent(registration.directory, kind, entry);
+            } catch (RuntimeException e) {
+                logger.error("[PollingWatchBackend] Failed to handle {} for '{}': {}", kind, entry, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void invalidate(Registration registration){
+        registrations.remove(registration.directory, registration);
+        for (WatchSink sink : registration.sinks) {
+            try {
+                sink.onInvalid(registration.directory);
+            } catch (RuntimeException e) {
+                logger.error("[PollingWatchBackend] Failed to handle invalid directory '{}': {}", registration.directory, e.getMessage(), e);
+            }
+        }
+    }
+
+    private void wakeUp(){
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    @Override
+    public void close(){
+        closed = true;
+        registrations.clear();
+        wakeUp();
+    }
+
+    private final class Registration {
+        private final Path directory;
+        private final DirectorySnapshot snapshot = new DirectorySnapshot();
+        private final CopyOnWriteArrayList<WatchSink> sinks = new CopyOnWriteArrayList<>();
+        // Only touched by the polling thread once registered
+        private Set<String> unsettled = Set.of();
+        private long interval = minIntervalNanos;
+        private volatile long nextPoll;
+
+        private Registration(Path directory) {
+            this.directory = directory;
+        }
+    }
+}
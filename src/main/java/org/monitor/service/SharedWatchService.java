@@ -0,0 +1,147 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * One WatchService (one inotify instance on Linux) and one dispatch thread for any number of directories.
+ * Every registered directory is indexed by its WatchKey, so dispatch is a single map lookup no matter how many
+ * directories or monitors share the service. This is the portable default backend.
+ */
+public class SharedWatchService implements WatchBackend {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> keys = new ConcurrentHashMap<>();
+    // Held while a key is created and indexed, and while dispatch looks one up, so events arriving for a directory
+    // registered a moment ago wait for its registration instead of being dropped
+    private final Object registrationLock = new Object();
+
+    public SharedWatchService() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    @Override
+    public void register(Path directory, WatchSink sink) throws IOException {
+        synchronized (registrationLock) {
+            WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            keys.put(directory, key);
+            registrations.computeIfAbsent(key, k -> new Registration(directory)).sinks.addIfAbsent(sink);
+        }
+    }
+
+    @Override
+    public void unregister(Path directory, WatchSink sink){
+        WatchKey key = keys.get(directory);
+        if (key == null) {
+            return;
+        }
+        registrations.computeIfPresent(key, (k, registration) -> {
+            registration.sinks.remove(sink);
+            if (registration.sinks.isEmpty()) {
+                key.cancel();
+                keys.remove(directory);
+                return null;
+            }
+            return registration;
+        });
+    }
+
+    @Override
+    public boolean reportsCompletedWrites(){
+        return false;
+    }
+
+    public int size(){
+        return registrations.size();
+    }
+
+    @Override
+    public void run(){
+        logger.info("Dispatching watch events for {} directories", registrations.size());
+        while (true) {
+            WatchKey key;
+            try {
+                // Retrieve the next queued watch key, waiting indefinitely
+                key = watchService.take();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt(); // Restore the interrupted status
+                return;
+            } catch (ClosedWatchServiceException x) {
+                return;
+            }
+
+            Registration registration;
+            synchronized (registrationLock) {
+                registration = registrations.get(key);
+            }
+            if (registration == null) {
+                // Unregistered since the event was queued
+                key.pollEvents();
+                key.reset();
+                continue;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+                Path entry = kind == OVERFLOW ? null : registration.directory.resolve((Path) event.context());
+                for (WatchSink sink : registration.sinks) {
+                    try {
+                        sink.onEvent(registration.directory, kind, entry);
+                    } catch (RuntimeException e) {
+                        logger.error("[SharedWatchService] Failed to handle {} for '{}': {}", kind, entry, e.getMessage(), e);
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                registrations.remove(key);
+                keys.remove(registration.directory, key);
+                for (WatchSink sink : registration.sinks) {
+                    try {
+                        sink.onInvalid(registration.directory);
+                    } catch (RuntimeException e) {
+                        logger.error("[SharedWatchService] Failed to handle invalid key for '{}': {}", registration.directory, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.error("[SharedWatchService] Error when closing WatchService: {}", e.getMessage());
+        }
+        registrations.clear();
+        keys.clear();
+    }
+
+    private static final class Registration {
+        private final Path directory;
+        private final CopyOnWriteArrayList<WatchSink> sinks = new CopyOnWriteArrayList<>();
+
+        private Registration(Path directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Waits for files to stop changing (i.e., finished being written) without blocking the caller.
+ * Candidates are parked on a timer wheel and re-checked in batches by a single ticker thread;
+ * a file is reported once its size and modification time are unchanged for a full quiet period.
+ * Reports run on a few reporter threads, since listeners hash the file, and the ticker only stats. A path always
+ * goes to the same reporter, so reports of one file stay in order.
+ */
+public class StabilityDetector {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final long tickMillis;
+    private final int quietTicks;
+    private final int batchSize;
+    private final ArrayDeque<Candidate>[] wheel;
+    private final int wheelMask;
+
+    // Only touched by the ticker thread
+    private final Map<Path, Candidate> candidates = new HashMap<>();
+    private long currentTick;
+
+    private final Queue<Candidate> inbox = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService[] reporters;
+
+    @SuppressWarnings("unchecked")
+    public StabilityDetector(StabilityDetector.Builder builder) {
+        this.tickMillis = builder.tickMillis;
+        this.quietTicks = (int) Math.max(1, (builder.quietPeriodMillis + tickMillis - 1) / tickMillis);
+        this.batchSize = builder.batchSize;
+
+        // One slot per tick of the quiet period is enough; round up to a power of two for cheap indexing.
+        int slots = Integer.highestOneBit(quietTicks + 1) << 1;
+        this.wheel = new ArrayDeque[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.wheelMask = slots - 1;
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stability-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+        this.reporters = new ExecutorService[builder.reporterThreads];
+        for (int i = 0; i < reporters.length; i++) {
+            reporters[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stability-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static class Builder{
+        private long quietPeriodMillis = 500;
+        private long tickMillis = 100;
+        private int batchSize = 1024;
+        private int reporterThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        public Builder withQuietPeriod(long quietPeriod, TimeUnit timeUnit){
+            this.quietPeriodMillis = timeUnit.toMillis(quietPeriod);
+            return this;
+        }
+
+        public Builder withTickInterval(long tickInterval, TimeUnit timeUnit){
+            this.tickMillis = timeUnit.toMillis(tickInterval);
+            return this;
+        }
+
+        public Builder withBatchSize(int batchSize){
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Threads the stable files are reported on, which is how many files listeners hash at once.
+         */
+        public Builder withReporterThreads(int reporterThreads){
+            this.reporterThreads = reporterThreads;
+            return this;
+        }
+
+        public StabilityDetector build(){
+            if(tickMillis <= 0){
+                throw new IllegalArgumentException("Tick interval must be positive");
+            }
+
+            if(quietPeriodMillis <= 0){
+                throw new IllegalArgumentException("Quiet period must be positive");
+            }
+
+            if(batchSize <= 0){
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+
+            if(reporterThreads <= 0){
+                throw new IllegalArgumentException("Reporter threads must be positive");
+            }
+
+            return new StabilityDetector(this);
+        }
+    }
+
+    /**
+     * Starts tracking a file. The callback is invoked on a reporter thread once the file is stable.
+     * Submitting a path that is already tracked simply restarts its quiet period.
+     */
+    public void submit(Path file, Consumer<Path> onStable){
+        submit(file, onStable, null);
+    }
+
+    /**
+     * Like {@link #submit(Path, Consumer)}, but runs {@code onDropped} on the ticker thread when the file won't be
+     * reported through this submission: it disappeared first, or a later submission of the path replaced it.
+     */
+    public void submit(Path file, Consumer<Path> onStable, Consumer<Path> onDropped){
+        inbox.add(new Candidate(file, onStable, onDropped));
+    }
+
+    /**
+     * Reports a file already known to be complete, skipping the quiet period, on the reporter thread its
+     * tracked reports go to.
+     */
+    public void report(Path file, Consumer<Path> onStable){
+        try {
+            reporters[Math.floorMod(file.hashCode(), reporters.length)].execute(() -> {
+                try {
+                    onStable.accept(file);
+                } catch (RuntimeException e) {
+                    logger.error("[StabilityDetector] Listener failed for '{}': {}", file, e.getMessage(), e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.info("'{}' finished writing after the stability detector closed", file.getFileName());
+        }
+    }
+
+    public boolean isClosed(){
+        return ticker.isShutdown();
+    }
+
+    public void close(){
+        ticker.shutdownNow();
+        for (ExecutorService reporter : reporters) {
+            reporter.shutdownNow();
+        }
+    }
+
+    private void tick(){
+        try {
+            drainInbox();
+            currentTick++;
+            ArrayDeque<Candidate> slot = wheel[(int) (currentTick & wheelMask)];
+            int processed = 0;
+            Candidate candidate;
+            while (processed < batchSize && (candidate = slot.poll()) != null) {
+                if (candidate.cancelled) {
+                    continue;
+                }
+                processed++;
+                check(candidate);
+            }
+
+            // Anything left over is still due; carry it into the next slot instead of stalling this tick.
+            if (!slot.isEmpty()) {
+                ArrayDeque<Candidate> next = wheel[(int) ((currentTick + 1) & wheelMask)];
+                next.addAll(slot);
+                slot.clear();
+            }
+        } catch (RuntimeException e) {
+            logger.error("[StabilityDetector] Tick failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void drainInbox(){
+        Candidate submitted;
+        while ((submitted = inbox.poll()) != null) {
+            Candidate existing = candidates.get(submitted.path);
+            if (existing != null) {
+                // Already waiting; a fresh event just means the quiet period starts over.
+                existing.cancelled = true;
+                drop(existing);
+            }
+            if (stat(submitted)) {
+                candidates.put(submitted.path, submitted);
+                park(submitted);
+            } else {
+                candidates.remove(submitted.path);
+                drop(submitted);
+            }
+        }
+    }
+
+    private void check(Candidate candidate){
+        long previousSize = candidate.size;
+        long previousModified = candidate.lastModified;
+        if (!stat(candidate)) {
+            candidates.remove(candidate.path);
+            logger.info("'{}' disappeared before it finished writing", candidate.path.getFileName());
+            drop(candidate);
+            return;
+        }
+
+        if (previousSize == candidate.size && previousModified == candidate.lastModified) {
+            candidates.remove(candidate.path);
+            report(candidate.path, candidate.onStable);
+        } else {
+            park(candidate);
+        }
+    }
+
+    private void drop(Candidate candidate){
+        if (candidate.onDropped == null) {
+            return;
+        }
+        try {
+            candidate.onDropped.accept(candidate.path);
+        } catch (RuntimeException e) {
+            logger.error("[StabilityDetector] Drop listener failed for '{}': {}", candidate.path, e.getMessage(), e);
+        }
+    }
+
+    private void park(Candidate candidate){
+        wheel[(int) ((currentTick + quietTicks) & wheelMask)].add(candidate);
+    }
+
+    private boolean stat(Candidate candidate){
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(candidate.path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return false;
+            }
+            candidate.size = attributes.size();
+            candidate.lastModified = attributes.lastModifiedTime().toMillis();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class Candidate {
+        private final Path path;
+        private final Consumer<Path> onStable;
+        private final Consumer<Path> onDropped;
+        private long size = -1L;
+        private long lastModified = -1L;
+        private boolean cancelled;
+
+        private Candidate(Path path, Consumer<Path> onStable, Consumer<Path> onDropped) {
+            this.path = path;
+            this.onStable = onStable;
+            this.onDropped = onDropped;
+        }
+    }
+}
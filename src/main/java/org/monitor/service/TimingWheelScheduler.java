@@ -0,0 +1,356 @@
+package org.monitor.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel for large numbers of long delays. Scheduling and cancelling are O(1) whatever the
+ * number of pending tasks, and a pending task costs a few array slots instead of a future and a heap node.
+ *
+ * <p>Four wheels of 256 slots each cover 2^32 ticks. A task goes into the finest wheel whose span reaches its
+ * deadline; whenever a wheel completes a turn, the next slot of the coarser wheel above is cascaded down. Each
+ * slot is an intrusive doubly linked list threaded through primitive arrays, so a task can be unlinked from
+ * the middle by its handle.</p>
+ *
+ * <p>A single ticker thread advances the wheels and hands due tasks to the worker pool in batches, never running
+ * them itself.</p>
+ */
+public class TimingWheelScheduler implements ActionScheduler {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+    private static final int NONE = -1;
+
+    private final long tickNanos;
+    private final int batchSize;
+    private final Executor workers;
+    private final boolean ownsWorkers;
+    private final long startNanos = System.nanoTime();
+    private final Thread ticker;
+    private volatile boolean closed;
+
+    // Entry columns, indexed by entry; guarded by this
+    private long[] deadlines;
+    private int[] next;
+    private int[] prev;
+    // Slot the entry is linked into, NONE while free
+    private int[] slots;
+    private int[] generations;
+    private Runnable[] tasks;
+    private int freeHead = NONE;
+    private int allocated;
+    private int size;
+
+    // Head entry of every slot of every wheel
+    private final int[] heads = new int[LEVELS * SLOTS];
+    private long currentTick;
+
+    public TimingWheelScheduler(TimingWheelScheduler.Builder builder) {
+        this.tickNanos = builder.tickNanos;
+        this.batchSize = builder.batchSize;
+        this.ownsWorkers = builder.workers == null;
+        this.workers = ownsWorkers ? Executors.newFixedThreadPool(builder.workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "action-worker");
+            thread.setDaemon(true);
+            return thread;
+        }) : builder.workers;
+
+        int capacity = builder.initialCapacity;
+        deadlines = new long[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        slots = new int[capacity];
+        generations = new int[capacity];
+        tasks = new Runnable[capacity];
+        Arrays.fill(heads, NONE);
+
+        this.ticker = Thread.ofPlatform().name("timing-wheel").daemon().start(this::run);
+    }
+
+    public static class Builder{
+        private long tickNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        private int batchSize = 256;
+        private int initialCapacity = 1024;
+        private Executor workers;
+        private int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+        /**
+         * Resolution of the wheel; tasks run up to one tick late.
+         */
+        public Builder withTick(long tick, TimeUnit timeUnit){
+            this.tickNanos = timeUnit.toNanos(tick);
+            return this;
+        }
+
+        /**
+         * Most tasks handed to the worker pool as one unit of work.
+         */
+        public Builder withBatchSize(int batchSize){
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder withInitialCapacity(int initialCapacity){
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        /**
+         * Runs due tasks on the given executor, which is left running on close. When omitted the scheduler
+         * keeps a pool of its own.
+         */
+        public Builder withWorkers(Executor workers){
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder withWorkerThreads(int workerThreads){
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public TimingWheelScheduler build(){
+            if(tickNanos <= 0){
+                throw new IllegalArgumentException("Tick must be positive");
+            }
+
+            if(batchSize <= 0){
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+
+            if(initialCapacity <= 0){
+                throw new IllegalArgumentException("Initial capacity must be positive");
+            }
+
+            if(workers == null && workerThreads <= 0){
+                throw new IllegalArgumentException("Worker threads must be positive");
+            }
+
+            return new TimingWheelScheduler(this);
+        }
+    }
+
+    @Override
+    public long schedule(Runnable task, long delay, TimeUnit timeUnit){
+        long delayNanos = Math.max(0, timeUnit.toNanos(delay));
+        long elapsed = System.nanoTime() - startNanos;
+        // Rounded up, so a task never runs early; saturates for delays too long to matter
+        long deadline = delayNanos > Long.MAX_VALUE - elapsed - tickNanos
+                ? Long.MAX_VALUE
+                : (elapsed + delayNanos + tickNanos - 1) / tickNanos;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Scheduler is closed");
+            }
+            int entry = allocate();
+            // The current tick's slot may already have been expired
+            deadlines[entry] = Math.max(deadline, currentTick + 1);
+            tasks[entry] = task;
+            place(entry);
+            size++;
+            return ((long) generations[entry] << 32) | entry;
+        }
+    }
+
+    @Override
+    public synchronized boolean cancel(long handle){
+        int entry = (int) handle;
+        if (entry < 0 || entry >= allocated || slots[entry] == NONE || generations[entry] != (int) (handle >>> 32)) {
+            return false;
+        }
+        unlink(entry);
+        release(entry);
+        size--;
+        return true;
+    }
+
+    @Override
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Stops the ticker; tasks not yet due are dropped. A pool the scheduler created is shut down after running
+     * what was already handed to it.
+     */
+    @Override
+    public void close(){
+        closed = true;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ownsWorkers) {
+            ((ExecutorService) workers).shutdown();
+        }
+    }
+
+    private void run(){
+        Runnable[] batch = new Runnable[batchSize];
+        while (!closed) {
+            long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+            int count = 0;
+            synchronized (this) {
+                if (size == 0) {
+                    // Nothing to cascade or expire, so idle time is skipped rather than ticked through
+                    currentTick = Math.max(currentTick, targetTick);
+                }
+                // One batch at a time, giving up the lock in between
+                while (count < batch.length) {
+                    if (heads[(int) currentTick & SLOT_MASK] == NONE) {
+                        if (currentTick >= targetTick) {
+                            break;
+                        }
+                        advance();
+                        continue;
+                    }
+                    count = expire(batch, count);
+                }
+            }
+            if (count > 0) {
+                dispatch(batch, count);
+                batch = new Runnable[batchSize];
+                if (count == batchSize) {
+                    continue;
+                }
+            }
+
+            long nextTickNanos = startNanos + (currentTickSnapshot() + 1) * tickNanos;
+            LockSupport.parkNanos(this, nextTickNanos - System.nanoTime());
+        }
+    }
+
+    private synchronized long currentTickSnapshot(){
+        return currentTick;
+    }
+
+    /**
+     * Moves to the next tick, cascading the coarser wheels whose slot comes up.
+     */
+    private void advance(){
+        currentTick++;
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            int slot = level * SLOTS + ((int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            int entry = heads[slot];
+            heads[slot] = NONE;
+            while (entry != NONE) {
+                int following = next[entry];
+                place(entry);
+                entry = following;
+            }
+        }
+    }
+
+    /**
+     * Moves the tasks due at the current tick into the batch after the first {@code count}, until it is full.
+     * Returns the new count; tasks that didn't fit stay in the slot for the next batch.
+     */
+    private int expire(Runnable[] batch, int count){
+        int slot = (int) currentTick & SLOT_MASK;
+        while (heads[slot] != NONE && count < batch.length) {
+            int entry = heads[slot];
+            unlink(entry);
+            batch[count++] = tasks[entry];
+            release(entry);
+            size--;
+        }
+        return count;
+    }
+
+    private void dispatch(Runnable[] batch, int count){
+        try {
+            workers.execute(() -> {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        batch[i].run();
+                    } catch (RuntimeException e) {
+                        logger.error("Scheduled task failed", e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.error("Unable to hand {} due tasks to the workers: {}", count, e.getMessage());
+        }
+    }
+
+    /**
+     * Links the entry into the finest wheel whose span reaches its deadline.
+     */
+    private void place(int entry){
+        long deadline = Math.min(deadlines[entry], currentTick + MAX_SPAN - 1);
+        long delta = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * SLOTS + ((int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        int head = heads[slot];
+        next[entry] = head;
+        prev[entry] = NONE;
+        if (head != NONE) {
+            prev[head] = entry;
+        }
+        heads[slot] = entry;
+        slots[entry] = slot;
+    }
+
+    private void unlink(int entry){
+        int slot = slots[entry];
+        if (prev[entry] != NONE) {
+            next[prev[entry]] = next[entry];
+        } else {
+            heads[slot] = next[entry];
+        }
+        if (next[entry] != NONE) {
+            prev[next[entry]] = prev[entry];
+        }
+        slots[entry] = NONE;
+    }
+
+    private int allocate(){
+        if (freeHead != NONE) {
+            int entry = freeHead;
+            freeHead = next[entry];
+            return entry;
+        }
+        if (allocated == deadlines.length) {
+            int capacity = deadlines.length * 2;
+            deadlines = Arrays.copyOf(deadlines, capacity);
+            next = Arrays.copyOf(next, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            tasks = Arrays.copyOf(tasks, capacity);
+        }
+        int entry = allocated++;
+        generations[entry] = 1;
+        return entry;
+    }
+
+    /**
+     * Returns the entry to the free list. Its generation moves on, so stale handles no longer match.
+     */
+    private void release(int entry){
+        tasks[entry] = null;
+        slots[entry] = NONE;
+        generations[entry]++;
+        next[entry] = freeHead;
+        freeHead = entry;
+    }
+}
@@ -0,0 +1,34 @@
+package org.monitor.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Source of directory events for {@link FileSystemMonitor}. One backend serves any number of directories and
+ * monitors, delivering events to each directory's {@link WatchSink} from its own dispatch loop.
+ */
+public interface WatchBackend {
+    /**
+     * Starts delivering the directory's events to the sink. Registering a directory again from another sink
+     * shares the underlying watch.
+     */
+    void register(Path directory, WatchSink sink) throws IOException;
+
+    /**
+     * Stops delivering the directory's events to the sink. The watch is released once no sink is left.
+     */
+    void unregister(Path directory, WatchSink sink);
+
+    /**
+     * Whether the backend reports when a writer has finished with a file through
+     * {@link WatchSink#onWriteCompleted}, making size polling unnecessary.
+     */
+    boolean reportsCompletedWrites();
+
+    /**
+     * Dispatches events until the thread is interrupted or the backend is closed.
+     */
+    void run();
+
+    void close();
+}
@@ -0,0 +1,28 @@
+package org.monitor.service;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * Receives the events of the directories it registered with a {@link WatchBackend}.
+ * Called on the dispatch thread, so implementations must hand off anything slow.
+ */
+public interface WatchSink {
+    /**
+     * @param directory the registered directory the event belongs to
+     * @param kind      the event kind
+     * @param entry     the affected entry resolved against {@code directory}, or null for OVERFLOW
+     */
+    void onEvent(Path directory, WatchEvent.Kind<?> kind, Path entry);
+
+    /**
+     * A writer closed the file, or a finished file was moved in. Only sent by backends that
+     * {@link WatchBackend#reportsCompletedWrites() report completed writes}.
+     */
+    void onWriteCompleted(Path directory, Path entry);
+
+    /**
+     * The directory's watch is no longer valid, typically because it was deleted.
+     */
+    void onInvalid(Path directory);
+}
@@ -0,0 +1,76 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Copies a file while hashing it, so the source is read exactly once. The bytes go to a temporary file beside the
+ * destination, which only replaces the destination (by an atomic rename) when the digest of what was copied matches
+ * the expected one. A reader of the destination therefore never sees a partial or mismatching copy.
+ */
+public class CopyEngine {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // Actions run on platform threads, so one buffer per thread stays bounded
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * Returns true when the copy matched {@code expectedDigest} and is in place, false when it didn't and was
+     * discarded. The hasher is reset first and holds nothing afterwards; its digest is taken for the comparison.
+     */
+    public static boolean copy(Path source, Path destination, Hasher hasher, String expectedDigest) throws IOException {
+        return copy(source, destination, hasher, expectedDigest, false, Throttle.unlimited());
+    }
+
+    /**
+     * Same as {@link #copy(Path, Path, Hasher, String)}, forcing the copy to disk before it is renamed when
+     * {@code force} is set, and writing each chunk only once {@code throttle} allows it.
+     */
+    public static boolean copy(Path source, Path destination, Hasher hasher, String expectedDigest, boolean force, Throttle throttle) throws IOException {
+        Path temporary = temporaryFile(destination);
+        hasher.reset();
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = BUFFER.get();
+                buffer.clear();
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    throttle.acquire(buffer.remaining());
+                    hasher.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                if (force) {
+                    out.force(true);
+                }
+            }
+
+            if (!FileHasher.bytesToHex(hasher.digest()).equals(expectedDigest)) {
+                Files.deleteIfExists(temporary);
+                return false;
+            }
+            Files.move(temporary, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            hasher.reset();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Hidden and unique, in the destination's directory so the final rename never crosses file systems.
+     */
+    private static Path temporaryFile(Path destination){
+        return destination.resolveSibling("." + destination.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+    }
+}
@@ -0,0 +1,42 @@
+package org.monitor.util;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C backed by the JDK intrinsic (SSE4.2 / ARMv8 CRC instructions where available).
+ */
+final class Crc32cHasher implements Hasher {
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void update(ByteBuffer buffer){
+        crc.update(buffer);
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length){
+        crc.update(bytes, offset, length);
+    }
+
+    @Override
+    public int digestLength(){
+        return 4;
+    }
+
+    @Override
+    public int digest(byte[] output, int offset){
+        int value = (int) crc.getValue();
+        crc.reset();
+        output[offset] = (byte) (value >>> 24);
+        output[offset + 1] = (byte) (value >>> 16);
+        output[offset + 2] = (byte) (value >>> 8);
+        output[offset + 3] = (byte) value;
+        return 4;
+    }
+
+    @Override
+    public void reset(){
+        crc.reset();
+    }
+}
@@ -0,0 +1,274 @@
+package org.monitor.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index from content digest to the archive path holding that content, so content that is already
+ * archived doesn't have to be written again.
+ *
+ * <p>The file is an append-only log of (key, path) records behind a small header, memory-mapped and grown as needed;
+ * a later record for the same key replaces the earlier one. Lookups go through an open-addressing table in memory
+ * that is rebuilt from the log on open and caught up with whatever other writers appended since.</p>
+ *
+ * <p>The end in the header is written after the record, but the kernel writes mapped pages back in no particular
+ * order, so after a crash it may cover a record that never reached the disk. Records whose lengths run past the end
+ * stop the catch-up there, and the next record written overwrites them; a damaged record with plausible lengths at
+ * worst points at a path that doesn't hold the content, which callers check anyway.</p>
+ *
+ * <p>Every access holds a lock on the file, so any number of instances, in this process or others, can share one
+ * index file. Instances in the same process also serialize on a monitor per file, since the JVM refuses overlapping
+ * file locks.</p>
+ */
+public class DedupIndex implements Closeable {
+    private static final int MAGIC = 0x44445831; // "DDX1"
+    private static final long HEADER_SIZE = 16;
+    private static final long END_OFFSET = 8;
+    private static final long MIN_MAPPING = 1024 * 1024;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private static final ConcurrentHashMap<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final Object monitor;
+    private Arena arena;
+    private MemorySegment segment;
+    // End of the log as far as the table has indexed it
+    private long indexedEnd = HEADER_SIZE;
+
+    // Record offsets by key hash; 0 marks an empty slot since no record starts inside the header
+    private long[] hashes = new long[1024];
+    private long[] offsets = new long[1024];
+    private int count;
+
+    private DedupIndex(FileChannel channel, Object monitor) {
+        this.channel = channel;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Opens the index at {@code file}, creating it when missing.
+     */
+    public static DedupIndex open(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath().normalize();
+        FileChannel channel = FileChannel.open(absolute, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        DedupIndex index = new DedupIndex(channel, MONITORS.computeIfAbsent(absolute, path -> new Object()));
+        try {
+            synchronized (index.monitor) {
+                try (FileLock ignored = channel.lock()) {
+                    if (channel.size() < HEADER_SIZE) {
+                        index.map(MIN_MAPPING);
+                        index.segment.set(INT, 0, MAGIC);
+                        index.segment.set(LONG, END_OFFSET, HEADER_SIZE);
+                    } else {
+                        index.map(Math.max(MIN_MAPPING, channel.size()));
+                        if (index.segment.get(INT, 0) != MAGIC) {
+                            throw new IOException("Not a dedup index: " + absolute);
+                        }
+                    }
+                    index.catchUp();
+                }
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The path most recently recorded for the key, if any. The path may no longer exist or hold that content;
+     * callers check before relying on it.
+     */
+    public Optional<Path> lookup(String key){
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        synchronized (monitor) {
+            if (arena == null) {
+                return Optional.empty();
+            }
+            try (FileLock ignored = channel.lock(0, Long.MAX_VALUE, true)) {
+                catchUp();
+                int slot = find(keyBytes, hash(keyBytes));
+                if (offsets[slot] == 0) {
+                    return Optional.empty();
+                }
+                long offset = offsets[slot];
+                int keyLength = segment.get(INT, offset);
+                int pathLength = segment.get(INT, offset + 4);
+                byte[] path = segment.asSlice(offset + 8 + keyLength, pathLength).toArray(ValueLayout.JAVA_BYTE);
+                return Optional.of(Path.of(new String(path, StandardCharsets.UTF_8)));
+            } catch (IOException | InvalidPathException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Records that {@code path} holds the content identified by {@code key}.
+     */
+    public void put(String key, Path path) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] pathBytes = path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        synchronized (monitor) {
+            if (arena == null) {
+                throw new IOException("Dedup index is closed");
+            }
+            try (FileLock ignored = channel.lock()) {
+                catchUp();
+                long offset = indexedEnd;
+                long end = offset + 8 + keyBytes.length + pathBytes.length;
+                if (end > segment.byteSize()) {
+                    map(Math.max(end, 2 * segment.byteSize()));
+                }
+                segment.set(INT, offset, keyBytes.length);
+                segment.set(INT, offset + 4, pathBytes.length);
+                MemorySegment.copy(keyBytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 8, keyBytes.length);
+                MemorySegment.copy(pathBytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 8 + keyBytes.length, pathBytes.length);
+                // Published last, so a crash mid-record leaves the record out rather than half in
+                segment.set(LONG, END_OFFSET, end);
+                index(offset, keyBytes);
+                indexedEnd = end;
+            }
+        }
+    }
+
+    /**
+     * Number of distinct keys.
+     */
+    public int size(){
+        synchronized (monitor) {
+            return count;
+        }
+    }
+
+    /**
+     * Indexes the records appended since the last call, by this instance or any other, up to the first one that
+     * doesn't fit before the end. Called with the file locked.
+     */
+    private void catchUp() throws IOException {
+        long end = Math.min(segment.get(LONG, END_OFFSET), channel.size());
+        if (end > segment.byteSize()) {
+            map(channel.size());
+        }
+        while (end - indexedEnd >= 8) {
+            int keyLength = segment.get(INT, indexedEnd);
+            int pathLength = segment.get(INT, indexedEnd + 4);
+            if (keyLength < 0 || pathLength < 0 || (long) keyLength + pathLength > end - indexedEnd - 8) {
+                return;
+            }
+            byte[] key = segment.asSlice(indexedEnd + 8, keyLength).toArray(ValueLayout.JAVA_BYTE);
+            index(indexedEnd, key);
+            indexedEnd += 8 + keyLength + pathLength;
+        }
+    }
+
+    private void index(long offset, byte[] key){
+        long hash = hash(key);
+        int slot = find(key, hash);
+        if (offsets[slot] == 0) {
+            count++;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        if (count * 2 > offsets.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Slot holding the key, or the empty slot where it would go.
+     */
+    private int find(byte[] key, long hash){
+        int mask = offsets.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (offsets[slot] != 0) {
+            if (hashes[slot] == hash && keyEquals(offsets[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean keyEquals(long offset, byte[] key){
+        if (segment.get(INT, offset) != key.length) {
+            return false;
+        }
+        return MemorySegment.mismatch(segment, offset + 8, offset + 8 + key.length,
+                MemorySegment.ofArray(key), 0, key.length) == -1;
+    }
+
+    private void rehash(){
+        long[] oldHashes = hashes;
+        long[] oldOffsets = offsets;
+        hashes = new long[oldOffsets.length * 2];
+        offsets = new long[oldOffsets.length * 2];
+        int mask = offsets.length - 1;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != 0) {
+                int slot = (int) (oldHashes[i] ^ (oldHashes[i] >>> 32)) & mask;
+                while (offsets[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                offsets[slot] = oldOffsets[i];
+            }
+        }
+    }
+
+    /**
+     * Maps the first {@code size} bytes, growing the file if it is shorter.
+     */
+    private void map(long size) throws IOException {
+        Arena mapping = Arena.ofShared();
+        try {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, mapping);
+        } catch (IOException | RuntimeException e) {
+            mapping.close();
+            throw e;
+        }
+        if (arena != null) {
+            arena.close();
+        }
+        arena = mapping;
+    }
+
+    /**
+     * 64-bit FNV-1a over the key bytes.
+     */
+    private static long hash(byte[] key){
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public void close(){
+        synchronized (monitor) {
+            if (arena != null) {
+                segment.force();
+                arena.close();
+                arena = null;
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers directories already created, so archiving many files into the same few directories doesn't stat each
+ * path component for every file. A directory deleted behind the cache's back makes the next write into it fail;
+ * callers {@link #forget} it then, so the write after that creates it again. Thread safe.
+ */
+public class DirectoryCache {
+    private final int maxEntries;
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+    public DirectoryCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Creates the directory and its parents unless this cache created or saw them before.
+     */
+    public void ensure(Path directory) throws IOException {
+        if (directory == null || directories.contains(directory)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        // Rarely reached, since layouts reuse their directories; starting over is cheaper than tracking recency
+        if (directories.size() >= maxEntries) {
+            directories.clear();
+        }
+        directories.add(directory);
+    }
+
+    public void forget(Path directory){
+        if (directory != null) {
+            directories.remove(directory);
+        }
+    }
+
+    public int size(){
+        return directories.size();
+    }
+}
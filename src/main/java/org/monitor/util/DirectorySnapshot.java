@@ -0,0 +1,267 @@
+package org.monitor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact record of the entries of one directory: name, size, modification time and file key (inode).
+ * Everything lives in primitive arrays, names included, so a million entries cost a few dozen MB
+ * instead of a few hundred for a map of strings to attribute objects.
+ *
+ * <p>Entries are kept densely packed and found through an open-addressing table over a 64-bit name hash.
+ * A scan calls {@link #beginScan()}, then {@link #update} for every entry it sees, then
+ * {@link #removeUnseen()} to drop whatever has disappeared since the previous scan.</p>
+ */
+public class DirectorySnapshot {
+    public enum Change {ADDED, MODIFIED, UNCHANGED}
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Dense entry columns
+    private long[] hashes;
+    private long[] sizes;
+    private long[] modifiedTimes;
+    private long[] fileKeys;
+    private int[] nameOffsets;
+    private int[] nameLengths;
+    private int[] generations;
+    private int count;
+
+    // Names of all entries, back to back. Removed names become garbage until the next compaction.
+    private char[] names;
+    private int namesUsed;
+
+    // Open-addressing index: entry index + 1, 0 marks an empty slot
+    private int[] table;
+    private int generation;
+
+    public DirectorySnapshot() {
+        hashes = new long[INITIAL_CAPACITY];
+        sizes = new long[INITIAL_CAPACITY];
+        modifiedTimes = new long[INITIAL_CAPACITY];
+        fileKeys = new long[INITIAL_CAPACITY];
+        nameOffsets = new int[INITIAL_CAPACITY];
+        nameLengths = new int[INITIAL_CAPACITY];
+        generations = new int[INITIAL_CAPACITY];
+        names = new char[INITIAL_CAPACITY * 16];
+        table = new int[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * Records the current state of an entry and reports how it differs from what was recorded before.
+     */
+    public synchronized Change update(String name, long size, long modifiedTime, long fileKey){
+        long hash = hash(name);
+        int slot = find(name, hash);
+        if (slot >= 0) {
+            int index = table[slot] - 1;
+            generations[index] = generation;
+            if (sizes[index] == size && modifiedTimes[index] == modifiedTime && fileKeys[index] == fileKey) {
+                return Change.UNCHANGED;
+            }
+            sizes[index] = size;
+            modifiedTimes[index] = modifiedTime;
+            fileKeys[index] = fileKey;
+            return Change.MODIFIED;
+        }
+
+        if (ensureCapacity(name.length())) {
+            slot = find(name, hash);
+        }
+        int index = count++;
+        hashes[index] = hash;
+        sizes[index] = size;
+        modifiedTimes[index] = modifiedTime;
+        fileKeys[index] = fileKey;
+        generations[index] = generation;
+        nameOffsets[index] = namesUsed;
+        nameLengths[index] = name.length();
+        name.getChars(0, name.length(), names, namesUsed);
+        namesUsed += name.length();
+        table[-slot - 1] = index + 1;
+        return Change.ADDED;
+    }
+
+    public synchronized boolean contains(String name){
+        return find(name, hash(name)) >= 0;
+    }
+
+    public synchronized boolean remove(String name){
+        int slot = find(name, hash(name));
+        if (slot < 0) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Starts a new scan. Entries not passed to {@link #update} from here on count as gone.
+     */
+    public synchronized void beginScan(){
+        generation++;
+    }
+
+    /**
+     * Drops every entry that was not seen since the last {@link #beginScan()} and returns their names.
+     */
+    public synchronized List<String> removeUnseen(){
+        List<String> removed = new ArrayList<>();
+        for (int index = count - 1; index >= 0; index--) {
+            if (generations[index] != generation) {
+                removed.add(new String(names, nameOffsets[index], nameLengths[index]));
+                removeAt(slotOf(index));
+            }
+        }
+        return removed;
+    }
+
+    public synchronized int size(){
+        return count;
+    }
+
+    private int find(String name, long hash){
+        int mask = table.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -slot - 1;
+            }
+            int index = entry - 1;
+            if (hashes[index] == hash && nameEquals(index, name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slotOf(int index){
+        int mask = table.length - 1;
+        int slot = (int) (hashes[index] ^ (hashes[index] >>> 32)) & mask;
+        while (table[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean nameEquals(int index, String name){
+        if (nameLengths[index] != name.length()) {
+            return false;
+        }
+        int offset = nameOffsets[index];
+        for (int i = 0; i < name.length(); i++) {
+            if (names[offset + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeAt(int slot){
+        int index = table[slot] - 1;
+        deleteSlot(slot);
+
+        // Keep the columns dense by moving the last entry into the hole
+        int last = count - 1;
+        if (index != last) {
+            int lastSlot = slotOf(last);
+            hashes[index] = hashes[last];
+            sizes[index] = sizes[last];
+            modifiedTimes[index] = modifiedTimes[last];
+            fileKeys[index] = fileKeys[last];
+            nameOffsets[index] = nameOffsets[last];
+            nameLengths[index] = nameLengths[last];
+            generations[index] = generations[last];
+            table[lastSlot] = index + 1;
+        }
+        count--;
+    }
+
+    /**
+     * Backward-shift deletion, so linear probing never needs tombstones.
+     */
+    private void deleteSlot(int slot){
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (table[next] != 0) {
+            long hash = hashes[table[next] - 1];
+            int home = (int) (hash ^ (hash >>> 32)) & mask;
+            // Move the entry back if its home slot is not between the hole and its current slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * Grows storage for one more entry. Returns true if the table was rebuilt, invalidating probed slots.
+     */
+    private boolean ensureCapacity(int nameLength){
+        if (count == hashes.length) {
+            int capacity = hashes.length << 1;
+            hashes = Arrays.copyOf(hashes, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            modifiedTimes = Arrays.copyOf(modifiedTimes, capacity);
+            fileKeys = Arrays.copyOf(fileKeys, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+
+        if (namesUsed + nameLength > names.length) {
+            compactNames(nameLength);
+        }
+
+        if ((count + 1) * 2 > table.length) {
+            rebuildTable(table.length << 1);
+            return true;
+        }
+        return false;
+    }
+
+    private void rebuildTable(int capacity){
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int index = 0; index < count; index++) {
+            int slot = (int) (hashes[index] ^ (hashes[index] >>> 32)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    private void compactNames(int extra){
+        int live = 0;
+        for (int index = 0; index < count; index++) {
+            live += nameLengths[index];
+        }
+        char[] compacted = new char[Math.max(names.length, (live + extra) * 2)];
+        int used = 0;
+        for (int index = 0; index < count; index++) {
+            System.arraycopy(names, nameOffsets[index], compacted, used, nameLengths[index]);
+            nameOffsets[index] = used;
+            used += nameLengths[index];
+        }
+        names = compacted;
+        namesUsed = used;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units of the name.
+     */
+    private static long hash(String name){
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
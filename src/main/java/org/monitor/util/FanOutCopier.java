@@ -0,0 +1,298 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Copies a file to several destinations while reading and hashing it once. The caller's thread reads the source
+ * into a ring of chunks; one writer per destination writes the chunks in order to a temporary file beside it. A chunk
+ * is reused once every writer has written it, so a slow destination only holds the others back once it is a whole
+ * ring, the buffer budget, behind.
+ *
+ * <p>Like {@link CopyEngine}, the temporary files only replace the destinations when the digest of what was read
+ * matches the expected one. A destination that fails drops out without affecting the rest. The chunks are reused by
+ * the next copy on the same thread, so each copying thread keeps at most one buffer budget of them.</p>
+ */
+public class FanOutCopier {
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    // Chunks of finished copies, kept for the next copy read on the same thread instead of left to the GC
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>> SPARE_CHUNKS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fan-out-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Outcome of a copy: whether the source matched the expected digest, and when it did, the destinations now in
+     * place and those that failed.
+     */
+    public record Result(boolean matched, List<Path> written, Map<Path, IOException> failed) {
+    }
+
+    /**
+     * Copies {@code source} to every destination, holding at most {@code bufferBudget} bytes of it in memory. Each
+     * writer waits on the throttle at the same index before writing a chunk. With {@code force} the copies are on
+     * disk before they are renamed.
+     */
+    public static Result copy(Path source, List<Path> destinations, List<Throttle> throttles, Hasher hasher,
+                              String expectedDigest, long bufferBudget, boolean force) throws IOException {
+        if (destinations.size() != throttles.size()) {
+            throw new IllegalArgumentException("Every destination needs a throttle");
+        }
+        Ring ring = new Ring((int) Math.max(2, Math.min(Integer.MAX_VALUE, bufferBudget / CHUNK_SIZE)), destinations.size());
+        List<Path> temporaries = new ArrayList<>(destinations.size());
+        List<Future<?>> writers = new ArrayList<>(destinations.size());
+        Map<Path, IOException> failed = new LinkedHashMap<>();
+        hasher.reset();
+        try {
+            for (int i = 0; i < destinations.size(); i++) {
+                Path temporary = temporaryFile(destinations.get(i));
+                temporaries.add(temporary);
+                int writer = i;
+                writers.add(WRITERS.submit(() -> {
+                    write(ring, writer, temporary, throttles.get(writer), force);
+                    return null;
+                }));
+            }
+
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                read(ring, in, hasher);
+            } catch (IOException | RuntimeException e) {
+                ring.abort();
+                throw e;
+            }
+
+            for (int i = 0; i < writers.size(); i++) {
+                IOException failure = join(writers.get(i));
+                if (failure != null) {
+                    failed.put(destinations.get(i), failure);
+                }
+            }
+
+            if (!FileHasher.bytesToHex(hasher.digest()).equals(expectedDigest)) {
+                deleteAll(temporaries);
+                return new Result(false, List.of(), Map.of());
+            }
+            List<Path> written = new ArrayList<>();
+            for (int i = 0; i < destinations.size(); i++) {
+                Path destination = destinations.get(i);
+                if (failed.containsKey(destination)) {
+                    continue;
+                }
+                try {
+                    Files.move(temporaries.get(i), destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    written.add(destination);
+                } catch (IOException e) {
+                    failed.put(destination, e);
+                }
+            }
+            deleteAll(temporaries);
+            return new Result(true, written, failed);
+        } catch (IOException | RuntimeException e) {
+            hasher.reset();
+            ring.abort();
+            for (Future<?> writer : writers) {
+                join(writer);
+            }
+            deleteAll(temporaries);
+            throw e;
+        } finally {
+            // A writer still running after an interrupted abort may read its chunks, so they are left to it
+            if (writers.stream().allMatch(Future::isDone)) {
+                ring.recycle();
+            }
+        }
+    }
+
+    private static void read(Ring ring, FileChannel in, Hasher hasher) throws IOException {
+        for (long sequence = 0; ; sequence++) {
+            ByteBuffer chunk = ring.claim(sequence);
+            chunk.clear();
+            while (chunk.hasRemaining() && in.read(chunk) != -1) {
+                // Short reads only end at the end of the file
+            }
+            chunk.flip();
+            hasher.update(chunk.duplicate());
+            boolean last = chunk.limit() < chunk.capacity();
+            ring.publish(sequence, last);
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private static void write(Ring ring, int writer, Path temporary, Throttle throttle, boolean force) throws IOException {
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (long sequence = 0; ; sequence++) {
+                ByteBuffer chunk = ring.take(sequence);
+                if (chunk == null) {
+                    break;
+                }
+                throttle.acquire(chunk.remaining());
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+                ring.release(writer, sequence);
+            }
+            if (force) {
+                out.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            ring.drop(writer);
+            throw e;
+        }
+    }
+
+    private static IOException join(Future<?> writer){
+        try {
+            writer.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof IOException io ? io : new IOException("Writer failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new IOException("Interrupted while waiting for a writer", e);
+        }
+    }
+
+    private static void deleteAll(List<Path> temporaries){
+        for (Path temporary : temporaries) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static Path temporaryFile(Path destination){
+        return destination.resolveSibling("." + destination.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+    }
+
+    /**
+     * Chunks indexed by sequence modulo the ring size. The reader may fill chunk {@code n} once every writer still
+     * in the copy has released chunk {@code n - size}; a writer may write chunk {@code n} once it is published.
+     */
+    private static final class Ring {
+        private final ByteBuffer[] chunks;
+        // Guarded by this
+        private final long[] released;
+        private final boolean[] dropped;
+        private long published;
+        private long end = Long.MAX_VALUE;
+        private boolean aborted;
+
+        private Ring(int size, int writers) {
+            this.chunks = new ByteBuffer[size];
+            this.released = new long[writers];
+            this.dropped = new boolean[writers];
+        }
+
+        private synchronized ByteBuffer claim(long sequence) throws IOException {
+            while (sequence - slowest() >= chunks.length) {
+                await();
+            }
+            int index = (int) (sequence % chunks.length);
+            if (chunks[index] == null) {
+                // Taken as the ring fills, so small files don't cost the whole budget
+                ByteBuffer spare = SPARE_CHUNKS.get().poll();
+                chunks[index] = spare != null ? spare : ByteBuffer.allocateDirect(CHUNK_SIZE);
+            }
+            return chunks[index];
+        }
+
+        /**
+         * Hands the chunks to the next copy on the reading thread. Only called by that thread, once no writer is left.
+         */
+        private void recycle(){
+            ArrayDeque<ByteBuffer> spares = SPARE_CHUNKS.get();
+            for (int i = 0; i < chunks.length; i++) {
+                if (chunks[i] != null) {
+                    spares.push(chunks[i]);
+                    chunks[i] = null;
+                }
+            }
+        }
+
+        private synchronized void publish(long sequence, boolean last){
+            published = sequence + 1;
+            if (last) {
+                end = published;
+            }
+            notifyAll();
+        }
+
+        /**
+         * The chunk to write next, or null once every chunk was written. Writers only read from their own
+         * duplicate, so the reader's position and limit stay untouched.
+         */
+        private synchronized ByteBuffer take(long sequence) throws IOException {
+            while (sequence >= published && sequence < end) {
+                await();
+            }
+            if (sequence >= end) {
+                return null;
+            }
+            return chunks[(int) (sequence % chunks.length)].duplicate();
+        }
+
+        private synchronized void release(int writer, long sequence){
+            released[writer] = sequence + 1;
+            notifyAll();
+        }
+
+        private synchronized void drop(int writer){
+            dropped[writer] = true;
+            notifyAll();
+        }
+
+        private synchronized void abort(){
+            aborted = true;
+            notifyAll();
+        }
+
+        private long slowest(){
+            long slowest = Long.MAX_VALUE;
+            for (int i = 0; i < released.length; i++) {
+                if (!dropped[i]) {
+                    slowest = Math.min(slowest, released[i]);
+                }
+            }
+            // With every writer gone the reader still reads, so the digest can tell whether the source changed
+            return slowest == Long.MAX_VALUE ? published : slowest;
+        }
+
+        private void await() throws IOException {
+            if (aborted) {
+                throw new IOException("Copy aborted");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during copy", e);
+            }
+            if (aborted) {
+                throw new IOException("Copy aborted");
+            }
+        }
+    }
+}
@@ -2,8 +2,14 @@ package org.monitor.util;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.monitor.model.HashAlgorithm;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Optional;
@@ -12,11 +18,18 @@ public class FileHasher {
     private static final Logger logger = LogManager.getLogger();
     public static String ALGO_MD5 = "MD5";
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // Hashers, read buffer and output arrays are reused between calls on the same thread. Files are hashed on a
+    // bounded set of platform threads, so that is at most one set of them per thread.
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
     public static Optional<String> hashFile(File file, String algorithm){
-        try {
-            if (algorithm.isBlank())
-                    algorithm = ALGO_MD5;
+        if (algorithm.isBlank() || algorithm.equalsIgnoreCase(ALGO_MD5)) {
+            return hashFile(file.toPath(), HashAlgorithm.MD5);
+        }
 
+        try {
             MessageDigest digest = MessageDigest.getInstance(algorithm);
             try (InputStream fis = new FileInputStream(file)) {
                 byte[] buffer = new byte[8192]; // 8KB buffer
@@ -29,20 +42,101 @@ public class FileHasher {
                 return Optional.empty();
             }
 
-            byte[] hashBytes = digest.digest();
-            digest.reset();
-            return Optional.of(bytesToHex(hashBytes));
+            return Optional.of(bytesToHex(digest.digest()));
         } catch (NoSuchAlgorithmException e) {
             logger.error(e);
             return Optional.empty();
         }
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : bytes) {
-            hexString.append(String.format("%02x", b));
+    /**
+     * Hashes the file through the thread's direct buffer and hasher, so the only allocations on this path are the
+     * channel and the returned string.
+     */
+    public static Optional<String> hashFile(Path file, HashAlgorithm algorithm){
+        Scratch scratch = SCRATCH.get();
+        Hasher hasher = scratch.hasher(algorithm);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = scratch.buffer;
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hasher.update(buffer);
+                buffer.clear();
+            }
+            int length = hasher.digest(scratch.digest, 0);
+            return Optional.of(toHex(scratch.digest, length, scratch.hex));
+        } catch (IOException e) {
+            hasher.reset();
+            logger.error("Unable to hash file. Error: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Hashes {@code length} bytes from {@code position} with positional reads, so several regions of one channel
+     * can be hashed concurrently. Returns the digest of the bytes actually present if the file is shorter.
+     */
+    static byte[] hashRegion(FileChannel channel, long position, long length, HashAlgorithm algorithm) throws IOException {
+        Scratch scratch = SCRATCH.get();
+        Hasher hasher = scratch.hasher(algorithm);
+        try {
+            update(hasher, channel, position, length, scratch.buffer);
+            return hasher.digest();
+        } catch (IOException e) {
+            hasher.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Feeds {@code length} bytes from {@code position} to the hasher using the thread's buffer.
+     */
+    static void update(Hasher hasher, FileChannel channel, long position, long length) throws IOException {
+        update(hasher, channel, position, length, SCRATCH.get().buffer);
+    }
+
+    private static void update(Hasher hasher, FileChannel channel, long position, long length, ByteBuffer buffer) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            hasher.update(buffer);
+        }
+    }
+
+    public static String bytesToHex(byte[] bytes) {
+        return toHex(bytes, bytes.length, new byte[bytes.length * 2]);
+    }
+
+    private static String toHex(byte[] bytes, int length, byte[] hex){
+        for (int i = 0; i < length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex, 0, 2 * length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class Scratch {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Hasher[] hashers = new Hasher[HashAlgorithm.values().length];
+        // Room for digests up to 512 bits
+        private final byte[] digest = new byte[64];
+        private final byte[] hex = new byte[128];
+
+        private Hasher hasher(HashAlgorithm algorithm){
+            Hasher hasher = hashers[algorithm.ordinal()];
+            if (hasher == null) {
+                hasher = Hasher.create(algorithm);
+                hashers[algorithm.ordinal()] = hasher;
+            }
+            return hasher;
         }
-        return hexString.toString();
     }
 }
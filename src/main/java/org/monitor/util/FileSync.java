@@ -0,0 +1,64 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces files, directories and whole file systems to disk. A renamed or created file only survives a crash
+ * once both its data and the directory entry pointing at it are on disk.
+ */
+public class FileSync {
+    /**
+     * Forces the file's data and metadata to disk.
+     */
+    public static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the directory's entries to disk, making creations and renames in it durable. Only POSIX systems can
+     * open a directory for this; elsewhere the file system orders its metadata itself and this does nothing.
+     */
+    public static void forceDirectory(Path directory) throws IOException {
+        if (!Libc.LINUX) {
+            return;
+        }
+        force(directory);
+    }
+
+    /**
+     * Forces everything written to the file system holding {@code path} with one {@code syncfs}, which costs about
+     * as much as a single fsync however many files were written. Returns false when {@code syncfs} isn't available,
+     * leaving the caller to force the files one by one.
+     */
+    public static boolean syncFileSystem(Path path) throws IOException {
+        if (Libc.OPEN == null || Libc.SYNCFS == null || Libc.CLOSE == null) {
+            return false;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment callState = arena.allocate(Libc.CALL_STATE);
+            int fd = (int) Libc.OPEN.invokeExact(callState, arena.allocateFrom(path.toAbsolutePath().toString()), Libc.O_RDONLY | Libc.O_CLOEXEC, 0);
+            if (fd < 0) {
+                throw new IOException("Unable to open '" + path + "' to sync its file system, errno " + Libc.errno(callState));
+            }
+            try {
+                if ((int) Libc.SYNCFS.invokeExact(callState, fd) != 0) {
+                    throw new IOException("Unable to sync the file system of '" + path + "', errno " + Libc.errno(callState));
+                }
+            } finally {
+                int ignored = (int) Libc.CLOSE.invokeExact(fd);
+            }
+            return true;
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.monitor.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.model.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Sampled fingerprint of a huge file: its size, the first and last {@link #EDGE_SIZE} bytes and
+ * {@link #SAMPLE_COUNT} evenly spaced blocks of {@link #SAMPLE_SIZE} bytes in between, each preceded by its offset.
+ * About 6 MB is read no matter how large the file is. Changes that miss every sampled region go unnoticed, so this
+ * is only for configs that trade integrity for speed.
+ */
+public class Fingerprinter {
+    private static final Logger logger = LogManager.getLogger();
+    public static final int EDGE_SIZE = 1024 * 1024;
+    public static final int SAMPLE_COUNT = 64;
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    public static Optional<String> fingerprint(Path file, HashAlgorithm algorithm){
+        Hasher hasher = Hasher.create(algorithm);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] regions = regions(size);
+            hasher.update(longBytes(size));
+            for (int i = 0; i < regions.length; i += 2) {
+                hasher.update(longBytes(regions[i]));
+                FileHasher.update(hasher, channel, regions[i], regions[i + 1]);
+            }
+            return Optional.of(FileHasher.bytesToHex(hasher.digest()));
+        } catch (IOException e) {
+            logger.error("Unable to fingerprint file. Error: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A hasher that picks the sampled regions out of the whole file streaming through it, for callers that read
+     * the file anyway. For a file of {@code size} bytes its digest equals {@link #fingerprint}; a stream of any
+     * other length gives a different digest.
+     */
+    public static Hasher streaming(long size, HashAlgorithm algorithm){
+        return new Streaming(size, algorithm);
+    }
+
+    /**
+     * Offset and length pairs, ascending and non-overlapping. Files too small to sample are taken whole.
+     */
+    static long[] regions(long size){
+        if (size == 0) {
+            return new long[0];
+        }
+        if (size <= 2L * EDGE_SIZE + (long) SAMPLE_COUNT * SAMPLE_SIZE) {
+            return new long[]{0, size};
+        }
+
+        long[] regions = new long[2 * (SAMPLE_COUNT + 2)];
+        regions[0] = 0;
+        regions[1] = EDGE_SIZE;
+        long spacing = (size - 2L * EDGE_SIZE) / SAMPLE_COUNT;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            regions[2 * (i + 1)] = EDGE_SIZE + i * spacing + (spacing - SAMPLE_SIZE) / 2;
+            regions[2 * (i + 1) + 1] = SAMPLE_SIZE;
+        }
+        regions[regions.length - 2] = size - EDGE_SIZE;
+        regions[regions.length - 1] = EDGE_SIZE;
+        return regions;
+    }
+
+    private static ByteBuffer longBytes(long value){
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+    }
+
+    private static final class Streaming implements Hasher {
+        private final long size;
+        private final long[] regions;
+        private final Hasher hasher;
+        private long position;
+        private int region;
+
+        private Streaming(long size, HashAlgorithm algorithm) {
+            this.size = size;
+            this.regions = regions(size);
+            this.hasher = Hasher.create(algorithm);
+            reset();
+        }
+
+        @Override
+        public void update(ByteBuffer buffer){
+            while (buffer.hasRemaining() && region < regions.length) {
+                long start = regions[region];
+                long end = start + regions[region + 1];
+                if (position < start) {
+                    // Skip ahead to the next sampled region
+                    int skip = (int) Math.min(buffer.remaining(), start - position);
+                    buffer.position(buffer.position() + skip);
+                    position += skip;
+                    continue;
+                }
+                if (position == start) {
+                    hasher.update(longBytes(start));
+                }
+                int take = (int) Math.min(buffer.remaining(), end - position);
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + take);
+                hasher.update(buffer);
+                buffer.limit(limit);
+                position += take;
+                if (position == end) {
+                    region += 2;
+                }
+            }
+            position += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+
+        @Override
+        public int digestLength(){
+            return hasher.digestLength();
+        }
+
+        @Override
+        public int digest(byte[] output, int offset){
+            if (position != size) {
+                // Not the file this was planned for; make sure it can't match
+                hasher.update(longBytes(position));
+            }
+            int length = hasher.digest(output, offset);
+            reset();
+            return length;
+        }
+
+        @Override
+        public void reset(){
+            hasher.reset();
+            hasher.update(longBytes(size));
+            position = 0;
+            region = 0;
+        }
+    }
+}
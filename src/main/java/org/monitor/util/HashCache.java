@@ -0,0 +1,132 @@
+package org.monitor.util;
+
+import org.monitor.model.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers file digests by (file key, size, modification time, change time), so a file whose metadata hasn't
+ * changed since it was hashed is not read again. Holds at most {@code maxEntries} digests and evicts the least
+ * recently used one. Thread safe.
+ * <p>
+ * The change time (ctime) can't be set from user space, which catches rewrites that restore the old mtime.
+ * It is only available where the file system offers the "unix" attribute view; elsewhere the key falls back to
+ * size and mtime, and to the path when the file system has no file keys.
+ */
+public class HashCache {
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    // Stands in for the chunk size in the key of a fingerprint; full hashes use 0, tree hashes their chunk size
+    private static final int FINGERPRINT = -1;
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Object> digests;
+    private long hits;
+    private long misses;
+
+    public HashCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.digests = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > HashCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the file's digest, computing it only when no digest is cached for its current metadata.
+     * A digest is only cached when the metadata is the same before and after hashing.
+     */
+    public Optional<String> hash(Path file, HashAlgorithm algorithm){
+        return lookup(file, algorithm, 0, path -> FileHasher.hashFile(path, algorithm));
+    }
+
+    /**
+     * Same as {@link #hash}, for the tree hash of a large file.
+     */
+    public Optional<TreeHash> treeHash(Path file, HashAlgorithm algorithm, int chunkSize){
+        return lookup(file, algorithm, chunkSize, path -> TreeHasher.hash(path, algorithm, chunkSize));
+    }
+
+    /**
+     * Same as {@link #hash}, for the sampled fingerprint of a huge file.
+     */
+    public Optional<String> fingerprint(Path file, HashAlgorithm algorithm){
+        return lookup(file, algorithm, FINGERPRINT, path -> Fingerprinter.fingerprint(path, algorithm));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Optional<T> lookup(Path file, HashAlgorithm algorithm, int chunkSize, Function<Path, Optional<T>> hasher){
+        Key before = key(file, algorithm, chunkSize);
+        if (before == null) {
+            return Optional.empty();
+        }
+
+        synchronized (this) {
+            Object digest = digests.get(before);
+            if (digest != null) {
+                hits++;
+                return Optional.of((T) digest);
+            }
+            misses++;
+        }
+
+        Optional<T> digest = hasher.apply(file);
+        if (digest.isPresent() && before.equals(key(file, algorithm, chunkSize))) {
+            synchronized (this) {
+                digests.put(before, digest.get());
+            }
+        }
+        return digest;
+    }
+
+    public synchronized int size(){
+        return digests.size();
+    }
+
+    public synchronized long hits(){
+        return hits;
+    }
+
+    public synchronized long misses(){
+        return misses;
+    }
+
+    private static Key key(Path file, HashAlgorithm algorithm, int chunkSize){
+        try {
+            if (UNIX_ATTRIBUTES) {
+                // One stat for all four
+                Map<String, Object> attributes = Files.readAttributes(file, "unix:fileKey,size,lastModifiedTime,ctime", LinkOption.NOFOLLOW_LINKS);
+                return new Key(attributes.get("fileKey"), (Long) attributes.get("size"),
+                        nanos(attributes.get("lastModifiedTime")), nanos(attributes.get("ctime")), algorithm, chunkSize);
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            Object identity = attributes.fileKey() != null ? attributes.fileKey() : file.toAbsolutePath();
+            return new Key(identity, attributes.size(), nanos(attributes.lastModifiedTime()), -1L, algorithm, chunkSize);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static long nanos(Object fileTime){
+        return ((FileTime) fileTime).to(TimeUnit.NANOSECONDS);
+    }
+
+    private record Key(Object identity, long size, long modified, long changed, HashAlgorithm algorithm, int chunkSize) {
+    }
+}
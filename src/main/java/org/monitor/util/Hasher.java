@@ -0,0 +1,46 @@
+package org.monitor.util;
+
+import org.monitor.model.HashAlgorithm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental digest of a byte stream. Instances are not thread safe and are reusable after {@link #digest()}.
+ */
+public interface Hasher {
+    /**
+     * Consumes the buffer's remaining bytes.
+     */
+    void update(ByteBuffer buffer);
+
+    default void update(byte[] bytes, int offset, int length){
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    int digestLength();
+
+    /**
+     * Writes the digest of everything consumed so far to {@code output} at {@code offset} and resets the hasher.
+     * Returns the number of bytes written, {@link #digestLength()}.
+     */
+    int digest(byte[] output, int offset);
+
+    /**
+     * Returns the digest of everything consumed so far and resets the hasher.
+     */
+    default byte[] digest(){
+        byte[] digest = new byte[digestLength()];
+        digest(digest, 0);
+        return digest;
+    }
+
+    void reset();
+
+    static Hasher create(HashAlgorithm algorithm){
+        return switch (algorithm) {
+            case MD5 -> new MessageDigestHasher("MD5");
+            case CRC32C -> new Crc32cHasher();
+            case XXH64 -> new Xxh64Hasher();
+        };
+    }
+}
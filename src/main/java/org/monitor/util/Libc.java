@@ -0,0 +1,87 @@
+package org.monitor.util;
+
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The libc functions this application calls directly, linked in one place. Every handle is null off Linux, when
+ * the function is missing, or when native access isn't enabled, and callers then take their portable path.
+ *
+ * <p>Handles linked with errno capture take a segment of {@link #CALL_STATE} as their first argument, from which
+ * {@link #errno} reads why a call failed.</p>
+ */
+public final class Libc {
+    public static final boolean LINUX = System.getProperty("os.name", "").toLowerCase().contains("linux");
+
+    // <fcntl.h>
+    public static final int O_RDONLY = 0;
+    public static final int O_WRONLY = 1;
+    public static final int O_CREAT = 0100;
+    public static final int O_EXCL = 0200;
+    public static final int O_CLOEXEC = 02000000;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    public static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final VarHandle ERRNO = CALL_STATE.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+
+    /**
+     * {@code int open(const char *path, int flags, ...)}, with errno.
+     */
+    public static final MethodHandle OPEN = downcall("open",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), 2, true);
+
+    /**
+     * {@code int ioctl(int fd, unsigned long request, ...)} with an int argument, with errno.
+     */
+    public static final MethodHandle IOCTL = downcall("ioctl",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT), 2, true);
+
+    /**
+     * {@code int syncfs(int fd)}, with errno.
+     */
+    public static final MethodHandle SYNCFS = downcall("syncfs",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), -1, true);
+
+    /**
+     * {@code int close(int fd)}. Nothing can be done about a failed close, so it doesn't capture errno.
+     */
+    public static final MethodHandle CLOSE = downcall("close",
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT), -1, false);
+
+    private Libc() {
+    }
+
+    public static int errno(MemorySegment callState){
+        return (int) ERRNO.get(callState, 0L);
+    }
+
+    /**
+     * Links a libc function, or returns null where that isn't possible. Arguments from {@code firstVariadic} on
+     * are passed as variadic, a negative value for functions that aren't.
+     */
+    public static MethodHandle downcall(String name, FunctionDescriptor descriptor, int firstVariadic, boolean captureErrno){
+        if (!LINUX) {
+            return null;
+        }
+        Linker.Option[] options = new Linker.Option[(firstVariadic < 0 ? 0 : 1) + (captureErrno ? 1 : 0)];
+        int option = 0;
+        if (firstVariadic >= 0) {
+            options[option++] = Linker.Option.firstVariadicArg(firstVariadic);
+        }
+        if (captureErrno) {
+            options[option] = Linker.Option.captureCallState("errno");
+        }
+        try {
+            return LINKER.defaultLookup().find(name).map(symbol -> LINKER.downcallHandle(symbol, descriptor, options)).orElse(null);
+        } catch (RuntimeException e) {
+            // Native access not enabled
+            return null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.monitor.util;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+final class MessageDigestHasher implements Hasher {
+    private final MessageDigest digest;
+
+    MessageDigestHasher(String algorithm) {
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest " + algorithm, e);
+        }
+    }
+
+    @Override
+    public void update(ByteBuffer buffer){
+        digest.update(buffer);
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length){
+        digest.update(bytes, offset, length);
+    }
+
+    @Override
+    public int digestLength(){
+        return digest.getDigestLength();
+    }
+
+    @Override
+    public int digest(byte[] output, int offset){
+        try {
+            return digest.digest(output, offset, digest.getDigestLength());
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("Output too small for " + digest.getAlgorithm(), e);
+        }
+    }
+
+    @Override
+    public byte[] digest(){
+        return digest.digest();
+    }
+
+    @Override
+    public void reset(){
+        digest.reset();
+    }
+}
@@ -0,0 +1,187 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzips a file on several cores, the way pigz does: the input is cut into blocks that are deflated independently
+ * and written out in order as one deflate stream. Each block but the last ends on a sync flush, so it ends on a byte
+ * boundary and the blocks concatenate, and each is primed with the last 32 KiB of the block before it, so the
+ * ratio stays close to a single-threaded gzip. The result is a plain .gz any gunzip reads.
+ *
+ * <p>The calling thread reads, hashes and checksums the input and writes the output; at most {@code threads}
+ * blocks are compressing at once, which bounds memory to a few blocks per thread whatever the file size. Like
+ * {@link CopyEngine} the output goes to a temporary file that only replaces the destination when the digest of
+ * what was read matches the expected one.</p>
+ */
+public class ParallelGzip {
+    public static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int CPUS = Runtime.getRuntime().availableProcessors();
+    // Compression is pure CPU work, so one pool sized to the cores serves every caller
+    private static final ForkJoinPool POOL = new ForkJoinPool(CPUS);
+
+    // One per level, since changing a deflater's level makes its next call compress with the old one
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /**
+     * Returns true when the input matched {@code expectedDigest} and the compressed file is in place, false when
+     * it didn't and was discarded. {@code threads} of 0 uses every core.
+     */
+    public static boolean compress(Path source, Path destination, int level, int threads, Hasher hasher,
+                                   String expectedDigest, Throttle throttle) throws IOException {
+        Path temporary = destination.resolveSibling("." + destination.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+        hasher.reset();
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                compress(in, out, level, threads <= 0 ? CPUS : threads, hasher, throttle);
+            }
+
+            if (!FileHasher.bytesToHex(hasher.digest()).equals(expectedDigest)) {
+                Files.deleteIfExists(temporary);
+                return false;
+            }
+            Files.move(temporary, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            hasher.reset();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Compresses {@code in} from its position to its end into {@code out}, as a complete gzip member.
+     */
+    public static void compress(FileChannel in, FileChannel out, int level, int threads, Hasher hasher, Throttle throttle) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive");
+        }
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Level must be between 0 and 9");
+        }
+        CRC32 crc = new CRC32();
+        long length = 0;
+        ArrayDeque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+        write(out, ByteBuffer.wrap(HEADER), throttle);
+        try {
+            byte[] previous = null;
+            while (true) {
+                byte[] block = new byte[BLOCK_SIZE];
+                int read = readFully(in, block);
+                if (read == 0) {
+                    break;
+                }
+                crc.update(block, 0, read);
+                if (hasher != null) {
+                    hasher.update(block, 0, read);
+                }
+                length += read;
+
+                if (inFlight.size() >= threads) {
+                    write(out, ByteBuffer.wrap(join(inFlight.poll())), throttle);
+                }
+                byte[] dictionary = previous;
+                inFlight.add(CompletableFuture.supplyAsync(() -> deflate(block, read, dictionary, level, false), POOL));
+                previous = read == BLOCK_SIZE ? block : null;
+                if (read < BLOCK_SIZE) {
+                    break;
+                }
+            }
+            // An empty final block ends the stream
+            inFlight.add(CompletableFuture.completedFuture(deflate(new byte[0], 0, null, level, true)));
+            while (!inFlight.isEmpty()) {
+                write(out, ByteBuffer.wrap(join(inFlight.poll())), throttle);
+            }
+        } finally {
+            for (CompletableFuture<byte[]> future : inFlight) {
+                future.cancel(false);
+            }
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc.getValue()).putInt((int) length).flip();
+        write(out, trailer, throttle);
+    }
+
+    /**
+     * Deflates one block into raw deflate data that ends on a byte boundary, or ends the stream when {@code last}.
+     */
+    private static byte[] deflate(byte[] block, int length, byte[] dictionary, int level, boolean last){
+        Deflater[] deflaters = DEFLATERS.get();
+        if (deflaters[level] == null) {
+            deflaters[level] = new Deflater(level, true);
+        }
+        Deflater deflater = deflaters[level];
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(block, 0, length);
+        if (last) {
+            deflater.finish();
+        }
+
+        byte[] output = new byte[length + (length >> 3) + 64];
+        int size = 0;
+        while (true) {
+            if (size == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            int available = output.length - size;
+            int written = deflater.deflate(output, size, available, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            size += written;
+            // A flush is complete once it leaves room in the output; finishing once the deflater says so
+            if (last ? deflater.finished() : written < available && deflater.needsInput()) {
+                break;
+            }
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause()
+                    : new IOException("Compression failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during compression", e);
+        }
+    }
+
+    private static int readFully(FileChannel in, byte[] block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        while (buffer.hasRemaining() && in.read(buffer) != -1) {
+            // Short reads only end at the end of the file
+        }
+        return buffer.position();
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer, Throttle throttle) throws IOException {
+        throttle.acquire(buffer.remaining());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.monitor.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the bytes per second and I/O operations per second of everyone sharing it, with a token bucket for each.
+ * Copy loops call {@link #acquire} before every chunk and sleep as long as the buckets are in debt, so a burst is
+ * spread out at the configured rate instead of saturating the device. A bucket holds at most a tenth of a second of
+ * tokens, which bounds the burst after an idle spell.
+ *
+ * <p>A limit of 0 means unlimited. Limits can only be lowered, so the strictest of several callers wins.</p>
+ */
+public class Throttle {
+    private final Bucket bytes = new Bucket();
+    private final Bucket operations = new Bucket();
+    private final LongAdder waitedNanos = new LongAdder();
+
+    public Throttle(long bytesPerSecond, long operationsPerSecond) {
+        limit(bytesPerSecond, operationsPerSecond);
+    }
+
+    /**
+     * A throttle of its own that doesn't limit anything until someone lowers its limits.
+     */
+    public static Throttle unlimited(){
+        return new Throttle(0, 0);
+    }
+
+    /**
+     * Lowers the limits to these, where they are stricter than the current ones. 0 leaves a limit as it is.
+     */
+    public void limit(long bytesPerSecond, long operationsPerSecond){
+        if (bytesPerSecond < 0 || operationsPerSecond < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        bytes.lower(bytesPerSecond);
+        operations.lower(operationsPerSecond);
+    }
+
+    public boolean limited(){
+        return bytes.rate() > 0 || operations.rate() > 0;
+    }
+
+    /**
+     * Takes one operation of {@code size} bytes, sleeping until both buckets allow it.
+     */
+    public void acquire(long size) throws InterruptedIOException {
+        long wait = Math.max(bytes.reserve(size), operations.reserve(1));
+        if (wait <= 0) {
+            return;
+        }
+        waitedNanos.add(wait);
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    /**
+     * Time callers spent waiting for the throttle since it was created.
+     */
+    public long waitedNanos(){
+        return waitedNanos.sum();
+    }
+
+    public long bytesPerSecond(){
+        return bytes.rate();
+    }
+
+    public long operationsPerSecond(){
+        return operations.rate();
+    }
+
+    /**
+     * Tokens go negative when taken faster than they refill; the debt is what the taker has to wait out. Waiting
+     * happens outside the lock, and since each taker adds to the debt, concurrent takers queue up behind each other.
+     */
+    private static final class Bucket {
+        // Guarded by this
+        private long rate;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        private synchronized void lower(long rate){
+            if (rate > 0 && (this.rate == 0 || rate < this.rate)) {
+                refill();
+                this.rate = rate;
+                tokens = Math.min(tokens, capacity());
+            }
+        }
+
+        private synchronized long rate(){
+            return rate;
+        }
+
+        /**
+         * Takes {@code amount} tokens and returns how long to wait, in nanoseconds, before using them.
+         */
+        private synchronized long reserve(long amount){
+            if (rate == 0) {
+                return 0;
+            }
+            refill();
+            tokens -= amount;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+
+        private void refill(){
+            long now = System.nanoTime();
+            if (rate > 0) {
+                tokens = Math.min(capacity(), tokens + (now - refilled) * rate / 1e9);
+            }
+            refilled = now;
+        }
+
+        private double capacity(){
+            return rate / 10.0;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.monitor.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Copies a file the cheapest way the destination allows, without moving the bytes through this process:
+ * <ul>
+ *     <li>{@link Strategy#HARD_LINK} on the same file system, when the caller allows sharing the inode;</li>
+ *     <li>{@link Strategy#REFLINK} on the same file system where it supports cloning extents ({@code FICLONE} on
+ *     btrfs, xfs and the like), which shares blocks copy-on-write and takes no time whatever the size;</li>
+ *     <li>{@link Strategy#TRANSFER} otherwise, through {@link FileChannel#transferTo}, which the kernel serves
+ *     with {@code copy_file_range} or {@code sendfile}. Files of at least {@link #PARALLEL_THRESHOLD} bytes are
+ *     split into ranges transferred concurrently ({@link Strategy#PARALLEL_TRANSFER}).</li>
+ * </ul>
+ * Like {@link CopyEngine} the copy goes to a hidden temporary file that only replaces the destination by an atomic
+ * rename, and only once the caller's check of it passes. Time and bytes are counted per strategy.
+ */
+public class TransferEngine {
+    public enum Strategy {HARD_LINK, REFLINK, TRANSFER, PARALLEL_TRANSFER}
+
+    public record StrategyStats(Strategy strategy, long files, long bytes, long nanos) {
+        public double bytesPerSecond(){
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+    }
+
+    public static final long PARALLEL_THRESHOLD = 256L * 1024 * 1024;
+    public static final long RANGE_SIZE = 64L * 1024 * 1024;
+    public static final long THROTTLE_CHUNK = 1024 * 1024;
+
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    // Ranges wait on the disk, so they get their own pool
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    // <linux/fs.h>
+    private static final long FICLONE = 0x40049409L;
+
+    // Devices that refused a clone once aren't asked again
+    private static final Set<Object> NO_REFLINK = ConcurrentHashMap.newKeySet();
+
+    private static final LongAdder[] FILES = adders();
+    private static final LongAdder[] BYTES = adders();
+    private static final LongAdder[] NANOS = adders();
+
+    public static Strategy copy(Path source, Path destination, boolean allowHardLink, Predicate<Path> check) throws IOException {
+        return copy(source, destination, allowHardLink, false, Throttle.unlimited(), check);
+    }
+
+    /**
+     * Copies {@code source} to {@code destination} and returns the strategy used, or null when {@code check}
+     * rejected the copy, which is then discarded. The check sees the finished temporary file before it is renamed.
+     * With {@code force} the copy is on disk before the rename; the rename itself is durable once the caller
+     * forces the destination's directory. Transfers go in chunks of {@link #THROTTLE_CHUNK} bytes when
+     * {@code throttle} is limited, each only once the throttle allows it; links and clones write no data and
+     * aren't throttled.
+     */
+    public static Strategy copy(Path source, Path destination, boolean allowHardLink, boolean force, Throttle throttle,
+                                Predicate<Path> check) throws IOException {
+        long start = System.nanoTime();
+        long size = Files.size(source);
+        Path temporary = temporaryFile(destination);
+        Strategy strategy;
+        try {
+            boolean sameDevice = sameDevice(source, destination.getParent());
+            if (sameDevice && allowHardLink && link(source, temporary)) {
+                strategy = Strategy.HARD_LINK;
+            } else if (sameDevice && reflink(source, temporary)) {
+                strategy = Strategy.REFLINK;
+            } else if (size >= PARALLEL_THRESHOLD) {
+                transferRanges(source, temporary, size, throttle);
+                strategy = Strategy.PARALLEL_TRANSFER;
+            } else {
+                transfer(source, temporary, throttle);
+                strategy = Strategy.TRANSFER;
+            }
+
+            if (!check.test(temporary)) {
+                Files.deleteIfExists(temporary);
+                return null;
+            }
+            if (force) {
+                FileSync.force(temporary);
+            }
+            Files.move(temporary, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        FILES[strategy.ordinal()].increment();
+        BYTES[strategy.ordinal()].add(size);
+        NANOS[strategy.ordinal()].add(System.nanoTime() - start);
+        return strategy;
+    }
+
+    /**
+     * Files, bytes and time spent per strategy since startup.
+     */
+    public static List<StrategyStats> stats(){
+        List<StrategyStats> stats = new ArrayList<>();
+        for (Strategy strategy : Strategy.values()) {
+            int i = strategy.ordinal();
+            if (FILES[i].sum() > 0) {
+                stats.add(new StrategyStats(strategy, FILES[i].sum(), BYTES[i].sum(), NANOS[i].sum()));
+            }
+        }
+        return stats;
+    }
+
+    private static boolean link(Path source, Path temporary){
+        try {
+            Files.createLink(temporary, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Clones the source's extents into a new file at {@code temporary}. Returns false, leaving nothing behind,
+     * when the file system can't.
+     */
+    private static boolean reflink(Path source, Path temporary) throws IOException {
+        if (Libc.OPEN == null || Libc.IOCTL == null || Libc.CLOSE == null) {
+            return false;
+        }
+        Object device = device(source);
+        if (device != null && NO_REFLINK.contains(device)) {
+            return false;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment callState = arena.allocate(Libc.CALL_STATE);
+            int in = (int) Libc.OPEN.invokeExact(callState, arena.allocateFrom(source.toAbsolutePath().toString()), Libc.O_RDONLY | Libc.O_CLOEXEC, 0);
+            if (in < 0) {
+                throw new IOException("Unable to open '" + source + "', errno " + Libc.errno(callState));
+            }
+            try {
+                int out = (int) Libc.OPEN.invokeExact(callState, arena.allocateFrom(temporary.toAbsolutePath().toString()),
+                        Libc.O_WRONLY | Libc.O_CREAT | Libc.O_EXCL | Libc.O_CLOEXEC, 0666);
+                if (out < 0) {
+                    throw new IOException("Unable to create '" + temporary + "', errno " + Libc.errno(callState));
+                }
+                int result;
+                try {
+                    result = (int) Libc.IOCTL.invokeExact(callState, out, FICLONE, in);
+                } finally {
+                    int ignored = (int) Libc.CLOSE.invokeExact(out);
+                }
+                if (result == 0) {
+                    return true;
+                }
+                // EOPNOTSUPP, EXDEV, EINVAL or ENOTTY all mean this file system doesn't clone
+                Files.deleteIfExists(temporary);
+                if (device != null) {
+                    NO_REFLINK.add(device);
+                }
+                return false;
+            } finally {
+                int ignored = (int) Libc.CLOSE.invokeExact(in);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            Files.deleteIfExists(temporary);
+            return false;
+        }
+    }
+
+    private static void transfer(Path source, Path temporary, Throttle throttle) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            transferRange(in, out, 0, in.size(), throttle);
+        }
+    }
+
+    /**
+     * Transfers fixed ranges concurrently, each through its own channel to the destination, since a channel
+     * writes at its own position.
+     */
+    private static void transferRanges(Path source, Path temporary, long size, Throttle throttle) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            Files.createFile(temporary);
+            int ranges = (int) ((size + RANGE_SIZE - 1) / RANGE_SIZE);
+            POOL.submit(() -> IntStream.range(0, ranges).parallel().forEach(range -> {
+                long position = range * RANGE_SIZE;
+                try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    out.position(position);
+                    transferRange(in, out, position, Math.min(RANGE_SIZE, size - position), throttle);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause()
+                    : new IOException("Parallel transfer failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during transfer", e);
+        }
+    }
+
+    private static void transferRange(FileChannel in, FileChannel out, long position, long length, Throttle throttle) throws IOException {
+        long end = position + length;
+        boolean limited = throttle.limited();
+        while (position < end) {
+            long chunk = end - position;
+            if (limited) {
+                chunk = Math.min(chunk, THROTTLE_CHUNK);
+                throttle.acquire(chunk);
+            }
+            long transferred = in.transferTo(position, chunk, out);
+            if (transferred <= 0) {
+                // The source shrank
+                if (position >= in.size()) {
+                    break;
+                }
+                continue;
+            }
+            position += transferred;
+        }
+    }
+
+    private static boolean sameDevice(Path source, Path directory){
+        Object sourceDevice = device(source);
+        return sourceDevice != null && sourceDevice.equals(device(directory));
+    }
+
+    private static Object device(Path path){
+        if (!UNIX_ATTRIBUTES) {
+            return null;
+        }
+        try {
+            return Files.getAttribute(path, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static Path temporaryFile(Path destination){
+        return destination.resolveSibling("." + destination.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+    }
+
+    private static LongAdder[] adders(){
+        LongAdder[] adders = new LongAdder[Strategy.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
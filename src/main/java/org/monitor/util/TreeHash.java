@@ -0,0 +1,57 @@
+package org.monitor.util;
+
+import org.monitor.model.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Digest of a file split into {@code chunkSize} regions: one leaf digest per region and a root digest over
+ * the concatenated leaves. Leaves let a copy be re-checked one region at a time.
+ */
+public record TreeHash(HashAlgorithm algorithm, int chunkSize, long size, List<byte[]> leaves, byte[] root) {
+
+    public String rootHex(){
+        return FileHasher.bytesToHex(root);
+    }
+
+    /**
+     * Writes the manifest: a header line with algorithm, chunk size, file size and root, then one leaf per line.
+     */
+    public void write(Path manifest) throws IOException {
+        List<String> lines = new ArrayList<>(leaves.size() + 1);
+        lines.add(algorithm + " " + chunkSize + " " + size + " " + rootHex());
+        for (byte[] leaf : leaves) {
+            lines.add(FileHasher.bytesToHex(leaf));
+        }
+        Files.write(manifest, lines, StandardCharsets.US_ASCII);
+    }
+
+    public static TreeHash read(Path manifest) throws IOException {
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.US_ASCII);
+        if (lines.isEmpty()) {
+            throw new IOException("Empty tree hash manifest " + manifest);
+        }
+        String[] header = lines.getFirst().split(" ");
+        if (header.length != 4) {
+            throw new IOException("Malformed tree hash manifest " + manifest);
+        }
+
+        HexFormat hex = HexFormat.of();
+        List<byte[]> leaves = new ArrayList<>(lines.size() - 1);
+        for (String line : lines.subList(1, lines.size())) {
+            leaves.add(hex.parseHex(line));
+        }
+        try {
+            return new TreeHash(HashAlgorithm.valueOf(header[0]), Integer.parseInt(header[1]), Long.parseLong(header[2]),
+                    leaves, hex.parseHex(header[3]));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed tree hash manifest " + manifest, e);
+        }
+    }
+}
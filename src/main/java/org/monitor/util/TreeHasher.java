@@ -0,0 +1,169 @@
+package org.monitor.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.monitor.model.HashAlgorithm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Hashes large files as a {@link TreeHash}: the file is split into fixed regions that are hashed in parallel with
+ * positional reads, and the root is the digest of the concatenated leaf digests. A single core no longer limits
+ * how fast one file can be hashed.
+ */
+public class TreeHasher {
+    private static final Logger logger = LogManager.getLogger();
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    // Separate from the common pool, since leaves block on disk reads
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public static Optional<TreeHash> hash(Path file, HashAlgorithm algorithm, int chunkSize){
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = chunkCount(size, chunkSize);
+            byte[][] leaves = new byte[chunks][];
+            POOL.submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                try {
+                    leaves[chunk] = FileHasher.hashRegion(channel, (long) chunk * chunkSize, chunkSize, algorithm);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+            return Optional.of(combine(algorithm, chunkSize, size, Arrays.asList(leaves)));
+        } catch (IOException e) {
+            logger.error("Unable to tree hash file. Error: {}", e.getMessage());
+        } catch (ExecutionException e) {
+            logger.error("Unable to tree hash file. Error: {}", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Re-hashes the file region by region and returns the indices of the chunks that don't match.
+     * A file of a different size fails every chunk past the shorter of the two.
+     */
+    public static List<Integer> verify(Path file, TreeHash expected) throws IOException {
+        List<Integer> mismatches = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int chunks = Math.max(expected.leaves().size(), chunkCount(channel.size(), expected.chunkSize()));
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                if (!verifyChunk(channel, expected, chunk)) {
+                    mismatches.add(chunk);
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    public static boolean verifyChunk(FileChannel channel, TreeHash expected, int chunk) throws IOException {
+        if (chunk >= expected.leaves().size()) {
+            return false;
+        }
+        long position = (long) chunk * expected.chunkSize();
+        long length = Math.min(expected.chunkSize(), expected.size() - position);
+        if (channel.size() < position + length) {
+            return false;
+        }
+        byte[] leaf = FileHasher.hashRegion(channel, position, length, expected.algorithm());
+        return Arrays.equals(leaf, expected.leaves().get(chunk));
+    }
+
+    /**
+     * A hasher that builds the same tree as {@link #hash} while bytes stream through it, for callers that
+     * read the file anyway. Its digest is the root.
+     */
+    public static Streaming streaming(HashAlgorithm algorithm, int chunkSize){
+        return new Streaming(algorithm, chunkSize);
+    }
+
+    private static int chunkCount(long size, int chunkSize){
+        return Math.toIntExact((size + chunkSize - 1) / chunkSize);
+    }
+
+    private static TreeHash combine(HashAlgorithm algorithm, int chunkSize, long size, List<byte[]> leaves){
+        Hasher hasher = Hasher.create(algorithm);
+        for (byte[] leaf : leaves) {
+            hasher.update(leaf, 0, leaf.length);
+        }
+        return new TreeHash(algorithm, chunkSize, size, List.copyOf(leaves), hasher.digest());
+    }
+
+    public static final class Streaming implements Hasher {
+        private final HashAlgorithm algorithm;
+        private final int chunkSize;
+        private final Hasher leafHasher;
+        private final List<byte[]> leaves = new ArrayList<>();
+        private long size;
+        private int inChunk;
+        private TreeHash last;
+
+        private Streaming(HashAlgorithm algorithm, int chunkSize) {
+            this.algorithm = algorithm;
+            this.chunkSize = chunkSize;
+            this.leafHasher = Hasher.create(algorithm);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer){
+            while (buffer.hasRemaining()) {
+                int take = Math.min(buffer.remaining(), chunkSize - inChunk);
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + take);
+                leafHasher.update(buffer);
+                buffer.limit(limit);
+                inChunk += take;
+                size += take;
+                if (inChunk == chunkSize) {
+                    leaves.add(leafHasher.digest());
+                    inChunk = 0;
+                }
+            }
+        }
+
+        @Override
+        public int digestLength(){
+            return leafHasher.digestLength();
+        }
+
+        @Override
+        public int digest(byte[] output, int offset){
+            if (inChunk > 0) {
+                leaves.add(leafHasher.digest());
+            }
+            last = combine(algorithm, chunkSize, size, leaves);
+            reset();
+            System.arraycopy(last.root(), 0, output, offset, last.root().length);
+            return last.root().length;
+        }
+
+        /**
+         * The full tree behind the most recent {@link #digest}, for writing its manifest.
+         */
+        public TreeHash tree(){
+            return last;
+        }
+
+        @Override
+        public void reset(){
+            leafHasher.reset();
+            leaves.clear();
+            size = 0;
+            inChunk = 0;
+        }
+    }
+}
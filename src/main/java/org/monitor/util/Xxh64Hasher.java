@@ -0,0 +1,161 @@
+package org.monitor.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming xxHash64 (seed 0). The digest is the 64-bit value in big-endian order, matching the canonical
+ * hex form printed by {@code xxhsum}.
+ */
+final class Xxh64Hasher implements Hasher {
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long totalLength;
+    // Bytes that didn't fill a whole stripe yet
+    private final byte[] pending = new byte[STRIPE];
+    private int pendingLength;
+
+    Xxh64Hasher() {
+        reset();
+    }
+
+    @Override
+    public void update(ByteBuffer buffer){
+        int remaining = buffer.remaining();
+        totalLength += remaining;
+
+        if (pendingLength > 0) {
+            int take = Math.min(remaining, STRIPE - pendingLength);
+            buffer.get(pending, pendingLength, take);
+            pendingLength += take;
+            remaining -= take;
+            if (pendingLength < STRIPE) {
+                return;
+            }
+            stripe(pending, 0);
+            pendingLength = 0;
+        }
+
+        if (remaining >= STRIPE) {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                int position = buffer.position();
+                int end = position + remaining - (remaining % STRIPE);
+                long a = v1, b = v2, c = v3, d = v4;
+                for (; position < end; position += STRIPE) {
+                    a = round(a, buffer.getLong(position));
+                    b = round(b, buffer.getLong(position + 8));
+                    c = round(c, buffer.getLong(position + 16));
+                    d = round(d, buffer.getLong(position + 24));
+                }
+                v1 = a; v2 = b; v3 = c; v4 = d;
+                remaining -= end - buffer.position();
+                buffer.position(end);
+            } finally {
+                buffer.order(order);
+            }
+        }
+
+        if (remaining > 0) {
+            buffer.get(pending, 0, remaining);
+            pendingLength = remaining;
+        }
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length){
+        update(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    @Override
+    public int digestLength(){
+        return 8;
+    }
+
+    @Override
+    public int digest(byte[] output, int offset){
+        LONG_BE.set(output, offset, value());
+        reset();
+        return 8;
+    }
+
+    long value(){
+        long hash;
+        if (totalLength >= STRIPE) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME64_5; // v3 still holds the seed
+        }
+        hash += totalLength;
+
+        int position = 0;
+        for (; position + 8 <= pendingLength; position += 8) {
+            hash ^= round(0, (long) LONG_LE.get(pending, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (position + 4 <= pendingLength) {
+            hash ^= ((int) INT_LE.get(pending, position) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            position += 4;
+        }
+        for (; position < pendingLength; position++) {
+            hash ^= (pending[position] & 0xFFL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    @Override
+    public void reset(){
+        v1 = PRIME64_1 + PRIME64_2;
+        v2 = PRIME64_2;
+        v3 = 0;
+        v4 = -PRIME64_1;
+        totalLength = 0;
+        pendingLength = 0;
+    }
+
+    private void stripe(byte[] bytes, int offset){
+        v1 = round(v1, (long) LONG_LE.get(bytes, offset));
+        v2 = round(v2, (long) LONG_LE.get(bytes, offset + 8));
+        v3 = round(v3, (long) LONG_LE.get(bytes, offset + 16));
+        v4 = round(v4, (long) LONG_LE.get(bytes, offset + 24));
+    }
+
+    private static long round(long accumulator, long input){
+        accumulator += input * PRIME64_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME64_1;
+    }
+
+    private static long mergeRound(long hash, long value){
+        hash ^= round(0, value);
+        return hash * PRIME64_1 + PRIME64_4;
+    }
+}
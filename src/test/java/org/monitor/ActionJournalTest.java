@@ -0,0 +1,96 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.model.Action;
+import org.monitor.service.ActionJournal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ActionJournalTest {
+
+    @Test
+    void pendingActionsSurviveReopening() throws IOException {
+        Path journalFile = Files.createTempDirectory("journal").resolve("pending.journal");
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build()) {
+            for (int i = 0; i < 20_000; i++) {
+                long id = journal.append("source -> archive", Path.of("source/file-" + i), "hash-" + i, 1000L + i, Action.MOVE);
+                if (i % 10 != 0) {
+                    journal.complete(id);
+                }
+            }
+            journal.append("other -> archive", Path.of("other/file"), "hash", 5000L, Action.COPY);
+        }
+
+        // Mostly tombstones, so opening compacts it
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build()) {
+            List<ActionJournal.Entry> pending = journal.pending("source -> archive");
+            Assertions.assertEquals(2_000, pending.size());
+            Assertions.assertEquals(Path.of("source/file-10"), pending.get(1).path());
+            Assertions.assertEquals("hash-10", pending.get(1).hash());
+            Assertions.assertEquals(1010L, pending.get(1).dueTime());
+            Assertions.assertEquals(Action.COPY, journal.pending("other -> archive").getFirst().action());
+
+            journal.complete(pending.get(1).id());
+        }
+
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).withCommitInterval(10, TimeUnit.MILLISECONDS).build()) {
+            // One completed since, the other owner's action still pending
+            Assertions.assertEquals(2_000, journal.size());
+        }
+    }
+
+    @Test
+    void actionsFinishingAfterCloseAreLeftForTheNextStart() throws IOException {
+        Path journalFile = Files.createTempDirectory("journal").resolve("closed.journal");
+        ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build();
+        long id = journal.append("source -> archive", Path.of("source/file"), "hash", 1000L, Action.MOVE);
+        journal.close();
+
+        journal.complete(id);
+        Assertions.assertEquals(0, journal.append("source -> archive", Path.of("source/late"), "hash", 1000L, Action.MOVE));
+
+        try (ActionJournal reopened = new ActionJournal.Builder().withFile(journalFile).build()) {
+            Assertions.assertEquals(1, reopened.pending("source -> archive").size());
+        }
+    }
+
+    @Test
+    void aDamagedTailIsCutOffInsteadOfFailingTheOpen() throws IOException {
+        Path journalFile = Files.createTempDirectory("journal").resolve("damaged.journal");
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build()) {
+            for (int i = 0; i < 3; i++) {
+                journal.append("source -> archive", Path.of("source/file-" + i), "hash-" + i, 1000L + i, Action.MOVE);
+            }
+        }
+
+        // The last record's page lost while the header claiming it made it to disk
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+            channel.read(header, 0);
+            long end = header.getLong(8);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 0x7F, 0x13}), end - 12);
+        }
+
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build()) {
+            List<ActionJournal.Entry> pending = journal.pending("source -> archive");
+            Assertions.assertEquals(2, pending.size());
+            Assertions.assertEquals(Path.of("source/file-1"), pending.getLast().path());
+            journal.append("source -> archive", Path.of("source/file-3"), "hash-3", 1003L, Action.MOVE);
+        }
+
+        try (ActionJournal journal = new ActionJournal.Builder().withFile(journalFile).build()) {
+            List<ActionJournal.Entry> pending = journal.pending("source -> archive");
+            Assertions.assertEquals(3, pending.size());
+            Assertions.assertEquals(Path.of("source/file-3"), pending.getLast().path());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.service.BundleWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+public class BundleTest {
+
+    @Test
+    void indexedOffsetsPointAtTheBundledBytes() throws IOException {
+        Path folder = Files.createTempDirectory("bundle-test");
+        BundleWriter writer = new BundleWriter.Builder()
+                .withFolder(folder)
+                .withMaxBytes(64 * 1024)
+                .withMaxAge(1, TimeUnit.HOURS)
+                .build();
+        AtomicInteger sealed = new AtomicInteger();
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+
+        // About 2 KB each, so the size limit rolls over to a new bundle every 30 or so
+        for (int i = 0; i < 100; i++) {
+            writer.append("sub/file-" + i + ".csv", content(i), now, sealed::incrementAndGet, () -> Assertions.fail("Bundle failed"));
+        }
+        // A name already in the open bundle goes to the next one
+        writer.append("sub/file-99.csv", content(-1), now, sealed::incrementAndGet, () -> Assertions.fail("Bundle failed"));
+        Assertions.assertTrue(sealed.get() < 101);
+        writer.close();
+        Assertions.assertEquals(101, sealed.get());
+
+        List<String> lines = Files.readAllLines(folder.resolve(BundleWriter.INDEX_FILE_NAME));
+        Assertions.assertEquals(101, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split("\t");
+            Path bundle = folder.resolve(fields[0]);
+            byte[] expected = content(i < 100 ? i : -1);
+            Assertions.assertEquals(expected.length, Long.parseLong(fields[2]));
+
+            ByteBuffer read = ByteBuffer.allocate(expected.length);
+            try (FileChannel channel = FileChannel.open(bundle)) {
+                channel.read(read, Long.parseLong(fields[1]));
+            }
+            Assertions.assertArrayEquals(expected, read.array());
+            try (ZipFile zip = new ZipFile(bundle.toFile())) {
+                Assertions.assertArrayEquals(expected, zip.getInputStream(zip.getEntry(fields[3])).readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void unsealedBundlesAreDroppedOnStart() throws IOException {
+        Path folder = Files.createTempDirectory("bundle-test");
+        BundleWriter writer = new BundleWriter.Builder().withFolder(folder).build();
+        AtomicInteger sealed = new AtomicInteger();
+        writer.append("a.csv", content(1), FileTime.fromMillis(0), sealed::incrementAndGet, () -> Assertions.fail("Bundle failed"));
+        // Simulates a crash: the bundle is still open when the next writer starts
+        new BundleWriter.Builder().withFolder(folder).build().close();
+
+        try (var files = Files.list(folder)) {
+            Assertions.assertEquals(0, files.count());
+        }
+        Assertions.assertEquals(0, sealed.get());
+    }
+
+    @Test
+    void filesOfABundleThatFailsToSealAreHandedBack() throws IOException {
+        Path folder = Files.createTempDirectory("bundle-test");
+        BundleWriter writer = new BundleWriter.Builder().withFolder(folder).withMaxAge(1, TimeUnit.HOURS).build();
+        AtomicInteger sealed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        writer.append("a.csv", content(1), now, sealed::incrementAndGet, failed::incrementAndGet);
+        writer.append("b.csv", content(2), now, sealed::incrementAndGet, failed::incrementAndGet);
+
+        // The open bundle vanishes from under the writer, so renaming it into place fails
+        try (var parts = Files.list(folder)) {
+            for (Path part : parts.toList()) {
+                Files.delete(part);
+            }
+        }
+        writer.flush();
+        Assertions.assertEquals(0, sealed.get());
+        Assertions.assertEquals(2, failed.get());
+
+        // The next bundle starts afresh
+        writer.append("a.csv", content(1), now, sealed::incrementAndGet, failed::incrementAndGet);
+        writer.close();
+        Assertions.assertEquals(1, sealed.get());
+        Assertions.assertEquals(2, failed.get());
+        Assertions.assertEquals(1, Files.readAllLines(folder.resolve(BundleWriter.INDEX_FILE_NAME)).size());
+    }
+
+    private static byte[] content(int i){
+        return ("id,value\n" + i + ",").repeat(200).getBytes(StandardCharsets.US_ASCII);
+    }
+}
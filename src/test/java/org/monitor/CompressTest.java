@@ -0,0 +1,52 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.model.HashAlgorithm;
+import org.monitor.util.FileHasher;
+import org.monitor.util.Hasher;
+import org.monitor.util.ParallelGzip;
+import org.monitor.util.Throttle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class CompressTest {
+
+    @Test
+    void gunzipsToTheOriginalForAnySizeAndThreadCount() throws IOException {
+        Path folder = Files.createTempDirectory("compress-test");
+        Random random = new Random(7);
+        // Empty, under a block, exactly one block, and several blocks with a partial last one
+        int[] sizes = {0, 1000, ParallelGzip.BLOCK_SIZE, 5 * ParallelGzip.BLOCK_SIZE + 123};
+        for (int size : sizes) {
+            byte[] data = new byte[size];
+            // Half random, half repeated, so blocks both compress and don't
+            random.nextBytes(data);
+            for (int i = size / 2; i < size; i++) {
+                data[i] = (byte) ('a' + i % 7);
+            }
+            Path source = folder.resolve("source-" + size);
+            Files.write(source, data);
+            String digest = FileHasher.hashFile(source, HashAlgorithm.XXH64).orElseThrow();
+
+            for (int threads : new int[]{1, 3}) {
+                Path compressed = folder.resolve("source-" + size + "-" + threads + ".gz");
+                Assertions.assertTrue(ParallelGzip.compress(source, compressed, 6, threads,
+                        Hasher.create(HashAlgorithm.XXH64), digest, Throttle.unlimited()));
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+                    Assertions.assertArrayEquals(data, in.readAllBytes());
+                }
+            }
+        }
+
+        Path source = folder.resolve("source-1000");
+        Path rejected = folder.resolve("rejected.gz");
+        Assertions.assertFalse(ParallelGzip.compress(source, rejected, 6, 2, Hasher.create(HashAlgorithm.XXH64), "00", Throttle.unlimited()));
+        Assertions.assertFalse(Files.exists(rejected));
+    }
+}
@@ -0,0 +1,81 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.util.DedupIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+public class DedupIndexTest {
+
+    @Test
+    void entriesSurviveReopening() throws IOException {
+        Path directory = Files.createTempDirectory("dedup");
+        Path indexFile = directory.resolve(".dedup-index");
+        try (DedupIndex index = DedupIndex.open(indexFile)) {
+            for (int i = 0; i < 50_000; i++) {
+                index.put("MD5:" + i + ":digest-" + i, directory.resolve("file-" + i));
+            }
+            index.put("MD5:7:digest-7", directory.resolve("replaced"));
+            Assertions.assertEquals(50_000, index.size());
+        }
+
+        try (DedupIndex index = DedupIndex.open(indexFile)) {
+            Assertions.assertEquals(50_000, index.size());
+            Assertions.assertEquals(Optional.of(directory.resolve("file-123")), index.lookup("MD5:123:digest-123"));
+            Assertions.assertEquals(Optional.of(directory.resolve("replaced")), index.lookup("MD5:7:digest-7"));
+            Assertions.assertEquals(Optional.empty(), index.lookup("MD5:7:digest-8"));
+        }
+    }
+
+    @Test
+    void instancesSeeEachOthersEntries() throws IOException {
+        Path directory = Files.createTempDirectory("dedup");
+        Path indexFile = directory.resolve(".dedup-index");
+        try (DedupIndex first = DedupIndex.open(indexFile); DedupIndex second = DedupIndex.open(indexFile)) {
+            first.put("a", directory.resolve("a"));
+            second.put("b", directory.resolve("b"));
+            Assertions.assertEquals(Optional.of(directory.resolve("b")), first.lookup("b"));
+            Assertions.assertEquals(Optional.of(directory.resolve("a")), second.lookup("a"));
+        }
+    }
+
+    @Test
+    void aRecordRunningPastTheEndIsLeftOutAndOverwritten() throws IOException {
+        Path directory = Files.createTempDirectory("dedup");
+        Path indexFile = directory.resolve(".dedup-index");
+        long last;
+        try (DedupIndex index = DedupIndex.open(indexFile)) {
+            index.put("MD5:1:digest-1", directory.resolve("file-1"));
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.nativeOrder());
+                channel.read(header, 0);
+                last = header.getLong(8);
+            }
+            index.put("MD5:2:digest-2", directory.resolve("file-2"));
+        }
+
+        // The second record's page lost: its key length is garbage
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(0, Integer.MAX_VALUE), last);
+        }
+
+        try (DedupIndex index = DedupIndex.open(indexFile)) {
+            Assertions.assertEquals(1, index.size());
+            Assertions.assertEquals(Optional.empty(), index.lookup("MD5:2:digest-2"));
+            index.put("MD5:3:digest-3", directory.resolve("file-3"));
+        }
+
+        try (DedupIndex index = DedupIndex.open(indexFile)) {
+            Assertions.assertEquals(2, index.size());
+            Assertions.assertEquals(Optional.of(directory.resolve("file-3")), index.lookup("MD5:3:digest-3"));
+        }
+    }
+}
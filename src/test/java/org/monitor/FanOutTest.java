@@ -0,0 +1,65 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.model.HashAlgorithm;
+import org.monitor.util.FanOutCopier;
+import org.monitor.util.FileHasher;
+import org.monitor.util.Hasher;
+import org.monitor.util.Throttle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class FanOutTest {
+
+    @Test
+    void everyDestinationGetsTheFileWithinABudgetSmallerThanIt() throws IOException {
+        Path folder = Files.createTempDirectory("fan-out-test");
+        byte[] data = new byte[5 * FanOutCopier.CHUNK_SIZE + 123];
+        new Random(3).nextBytes(data);
+        Path source = folder.resolve("source");
+        Files.write(source, data);
+        String digest = FileHasher.hashFile(source, HashAlgorithm.XXH64).orElseThrow();
+
+        List<Path> destinations = List.of(folder.resolve("a"), folder.resolve("b"), folder.resolve("c"));
+        // One slow destination, and a ring of two chunks it has to keep cycling through
+        List<Throttle> throttles = List.of(Throttle.unlimited(), new Throttle(20L * 1024 * 1024, 0), Throttle.unlimited());
+        FanOutCopier.Result result = FanOutCopier.copy(source, destinations, throttles, Hasher.create(HashAlgorithm.XXH64),
+                digest, 2L * FanOutCopier.CHUNK_SIZE, false);
+        Assertions.assertTrue(result.matched());
+        Assertions.assertEquals(destinations, result.written());
+        for (Path destination : destinations) {
+            Assertions.assertArrayEquals(data, Files.readAllBytes(destination));
+        }
+    }
+
+    @Test
+    void aFailedDestinationDoesntStopTheOthers() throws IOException {
+        Path folder = Files.createTempDirectory("fan-out-test");
+        Path source = folder.resolve("source");
+        Files.writeString(source, "content");
+        String digest = FileHasher.hashFile(source, HashAlgorithm.XXH64).orElseThrow();
+
+        Path missing = folder.resolve("missing").resolve("a");
+        Path present = folder.resolve("b");
+        FanOutCopier.Result result = FanOutCopier.copy(source, List.of(missing, present), List.of(Throttle.unlimited(), Throttle.unlimited()),
+                Hasher.create(HashAlgorithm.XXH64), digest, FanOutCopier.CHUNK_SIZE, false);
+        Assertions.assertTrue(result.matched());
+        Assertions.assertEquals(List.of(present), result.written());
+        Assertions.assertTrue(result.failed().containsKey(missing));
+        Assertions.assertEquals("content", Files.readString(present));
+
+        Path rejected = folder.resolve("rejected");
+        result = FanOutCopier.copy(source, List.of(rejected), List.of(Throttle.unlimited()), Hasher.create(HashAlgorithm.XXH64),
+                "00", FanOutCopier.CHUNK_SIZE, false);
+        Assertions.assertFalse(result.matched());
+        Assertions.assertFalse(Files.exists(rejected));
+        try (var files = Files.list(folder)) {
+            Assertions.assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".part")));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.model.HashAlgorithm;
+import org.monitor.util.FileHasher;
+import org.monitor.util.Fingerprinter;
+import org.monitor.util.Hasher;
+import org.monitor.util.TreeHash;
+import org.monitor.util.TreeHasher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class HasherTest {
+
+    @Test
+    void knownVectors(){
+        Assertions.assertEquals("ef46db3751d8e999", hex(HashAlgorithm.XXH64, ""));
+        Assertions.assertEquals("d24ec4f1a98c6e5b", hex(HashAlgorithm.XXH64, "a"));
+        Assertions.assertEquals("44bc2cf5ad770999", hex(HashAlgorithm.XXH64, "abc"));
+        Assertions.assertEquals("fbcea83c8a378bf1", hex(HashAlgorithm.XXH64, "Nobody inspects the spammish repetition"));
+        Assertions.assertEquals("e3069283", hex(HashAlgorithm.CRC32C, "123456789"));
+        Assertions.assertEquals("900150983cd24fb0d6963f7d28e17f72", hex(HashAlgorithm.MD5, "abc"));
+    }
+
+    @Test
+    void chunkingDoesNotChangeTheDigest(){
+        byte[] data = new byte[10_000];
+        new Random(42).nextBytes(data);
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            Hasher hasher = Hasher.create(algorithm);
+            hasher.update(data, 0, data.length);
+            String whole = FileHasher.bytesToHex(hasher.digest());
+
+            // Odd chunk sizes straddle the 32 byte stripes of xxHash64
+            for (int chunk : new int[]{1, 7, 31, 33, 4099}) {
+                for (int offset = 0; offset < data.length; offset += chunk) {
+                    hasher.update(data, offset, Math.min(chunk, data.length - offset));
+                }
+                Assertions.assertEquals(whole, FileHasher.bytesToHex(hasher.digest()), algorithm + " in chunks of " + chunk);
+            }
+        }
+    }
+
+    @Test
+    void treeHashMatchesStreamingAndFindsBadChunks() throws IOException {
+        byte[] data = new byte[10 * 4096 + 123];
+        new Random(7).nextBytes(data);
+        Path file = Files.createTempFile("tree-hash", ".bin");
+        try {
+            Files.write(file, data);
+            TreeHash parallel = TreeHasher.hash(file, HashAlgorithm.XXH64, 4096).orElseThrow();
+            Assertions.assertEquals(11, parallel.leaves().size());
+
+            TreeHasher.Streaming streaming = TreeHasher.streaming(HashAlgorithm.XXH64, 4096);
+            streaming.update(data, 0, 5000);
+            streaming.update(data, 5000, data.length - 5000);
+            Assertions.assertEquals(parallel.rootHex(), FileHasher.bytesToHex(streaming.digest()));
+
+            Path manifest = Files.createTempFile("tree-hash", ".treehash");
+            parallel.write(manifest);
+            TreeHash read = TreeHash.read(manifest);
+            Files.delete(manifest);
+            Assertions.assertEquals(parallel.rootHex(), read.rootHex());
+
+            data[3 * 4096 + 1] ^= 1;
+            Files.write(file, data);
+            Assertions.assertEquals(List.of(3), TreeHasher.verify(file, read));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void streamingFingerprintMatchesSampledReads() throws IOException {
+        byte[] data = new byte[8 * 1024 * 1024 + 12345];
+        new Random(11).nextBytes(data);
+        Path file = Files.createTempFile("fingerprint", ".bin");
+        try {
+            Files.write(file, data);
+            String sampled = Fingerprinter.fingerprint(file, HashAlgorithm.XXH64).orElseThrow();
+
+            Hasher streaming = Fingerprinter.streaming(data.length, HashAlgorithm.XXH64);
+            for (int offset = 0; offset < data.length; offset += 100_000) {
+                streaming.update(data, offset, Math.min(100_000, data.length - offset));
+            }
+            Assertions.assertEquals(sampled, FileHasher.bytesToHex(streaming.digest()));
+
+            data[data.length - 1] ^= 1;
+            Files.write(file, data);
+            Assertions.assertNotEquals(sampled, Fingerprinter.fingerprint(file, HashAlgorithm.XXH64).orElseThrow());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String hex(HashAlgorithm algorithm, String input){
+        Hasher hasher = Hasher.create(algorithm);
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        hasher.update(bytes, 0, bytes.length);
+        return FileHasher.bytesToHex(hasher.digest());
+    }
+}
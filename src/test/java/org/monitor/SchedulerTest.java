@@ -0,0 +1,55 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.service.TimingWheelScheduler;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SchedulerTest {
+
+    @Test
+    void runsUncancelledTasksOnceAndNeverEarly() throws InterruptedException {
+        // A fine tick, so the delays below cascade down from the third wheel
+        TimingWheelScheduler scheduler = new TimingWheelScheduler.Builder()
+                .withTick(10, TimeUnit.MICROSECONDS)
+                .withBatchSize(64)
+                .build();
+        int tasks = 20_000;
+        CountDownLatch done = new CountDownLatch(tasks / 2);
+        AtomicInteger early = new AtomicInteger();
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        Random random = new Random(17);
+
+        long[] handles = new long[tasks];
+        for (int i = 0; i < tasks; i++) {
+            long delayMicros = 500_000 + random.nextInt(1_000_000);
+            long due = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(delayMicros);
+            boolean keep = i % 2 == 0;
+            handles[i] = scheduler.schedule(() -> {
+                if (System.nanoTime() < due) {
+                    early.incrementAndGet();
+                }
+                if (keep) {
+                    done.countDown();
+                } else {
+                    cancelledRuns.incrementAndGet();
+                }
+            }, delayMicros, TimeUnit.MICROSECONDS);
+        }
+        for (int i = 1; i < tasks; i += 2) {
+            Assertions.assertTrue(scheduler.cancel(handles[i]));
+            Assertions.assertFalse(scheduler.cancel(handles[i]));
+        }
+
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, early.get());
+        Assertions.assertEquals(0, cancelledRuns.get());
+        Assertions.assertEquals(0, scheduler.size());
+        Assertions.assertFalse(scheduler.cancel(handles[0]));
+        scheduler.close();
+    }
+}
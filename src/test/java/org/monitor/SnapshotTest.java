@@ -0,0 +1,54 @@
+package org.monitor;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.monitor.util.DirectorySnapshot;
+
+import java.util.List;
+
+public class SnapshotTest {
+
+    @Test
+    void updateReportsChanges(){
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        Assertions.assertEquals(DirectorySnapshot.Change.ADDED, snapshot.update("a.txt", 10, 100, 1));
+        Assertions.assertEquals(DirectorySnapshot.Change.UNCHANGED, snapshot.update("a.txt", 10, 100, 1));
+        Assertions.assertEquals(DirectorySnapshot.Change.MODIFIED, snapshot.update("a.txt", 11, 100, 1));
+        Assertions.assertEquals(DirectorySnapshot.Change.MODIFIED, snapshot.update("a.txt", 11, 100, 2));
+        Assertions.assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    void scanDropsEntriesNotSeen(){
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        for (int i = 0; i < 10_000; i++) {
+            snapshot.update("file-" + i, i, i, i);
+        }
+
+        snapshot.beginScan();
+        for (int i = 0; i < 10_000; i += 2) {
+            Assertions.assertEquals(DirectorySnapshot.Change.UNCHANGED, snapshot.update("file-" + i, i, i, i));
+        }
+        List<String> removed = snapshot.removeUnseen();
+
+        Assertions.assertEquals(5_000, removed.size());
+        Assertions.assertEquals(5_000, snapshot.size());
+        for (int i = 0; i < 10_000; i++) {
+            Assertions.assertEquals(i % 2 == 0, snapshot.contains("file-" + i));
+        }
+    }
+
+    @Test
+    void removeKeepsOtherEntriesReachable(){
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        for (int i = 0; i < 1_000; i++) {
+            snapshot.update("f" + i, 0, 0, 0);
+        }
+        for (int i = 0; i < 1_000; i += 3) {
+            Assertions.assertTrue(snapshot.remove("f" + i));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            Assertions.assertEquals(i % 3 != 0, snapshot.contains("f" + i));
+        }
+    }
+}
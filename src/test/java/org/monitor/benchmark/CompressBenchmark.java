@@ -0,0 +1,91 @@
+package org.monitor.benchmark;
+
+import org.monitor.util.ParallelGzip;
+import org.monitor.util.Throttle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gzip throughput per thread count, on CSV-like text that compresses about as well as the drops COMPRESS is meant
+ * for. Scores are milliseconds per {@code sizeMb}, so MB/s = sizeMb * 1000 / score. {@code threads} of 1 is the
+ * single-threaded baseline; the output is the same format for every count.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.monitor.benchmark.CompressBenchmark}
+ * or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"6"})
+    public int level;
+
+    @Param({"64"})
+    public int sizeMb;
+
+    private Path source;
+    private Path destination;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder csv = new StringBuilder(sizeMb * 1024 * 1024 + 128);
+        Random random = new Random(42);
+        String[] symbols = {"AAPL", "MSFT", "GOOG", "AMZN", "NVDA", "TSLA"};
+        while (csv.length() < sizeMb * 1024 * 1024) {
+            csv.append(2024_01_01 + random.nextInt(365)).append(',')
+                    .append(symbols[random.nextInt(symbols.length)]).append(',')
+                    .append(random.nextInt(100_000) / 100.0).append(',')
+                    .append(random.nextInt(10_000)).append('\n');
+        }
+        source = Files.createTempFile("compress-benchmark", ".csv");
+        destination = Files.createTempFile("compress-benchmark", ".csv.gz");
+        Files.writeString(source, csv, StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(destination);
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ParallelGzip.compress(in, out, level, threads, null, Throttle.unlimited());
+            return out.size();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompressBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,100 @@
+package org.monitor.benchmark;
+
+import org.monitor.model.HashAlgorithm;
+import org.monitor.util.FileHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of hashing small files, where allocation rather than hashing dominates. Run with the GC profiler
+ * ({@code -prof gc}, as {@link #main} does) and compare {@code gc.alloc.rate.norm} of {@code pooled} against
+ * {@code stream}, which reproduces the previous InputStream/MessageDigest/String.format implementation. That one only
+ * ever hashed MD5, so it has a state of its own and is measured once per file size rather than once per algorithm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHasherBenchmark {
+
+    @State(Scope.Thread)
+    public static class SampleFile {
+        @Param({"4096"})
+        public int fileSize;
+
+        Path file;
+
+        @Setup
+        public void setUp() throws IOException {
+            byte[] bytes = new byte[fileSize];
+            new Random(42).nextBytes(bytes);
+            file = Files.createTempFile("file-hasher-benchmark", ".bin");
+            Files.write(file, bytes);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Algorithm {
+        @Param({"MD5", "CRC32C", "XXH64"})
+        public HashAlgorithm algorithm;
+    }
+
+    @Benchmark
+    public String pooled(SampleFile sample, Algorithm choice){
+        return FileHasher.hashFile(sample.file, choice.algorithm).orElseThrow();
+    }
+
+    @Benchmark
+    public String stream(SampleFile sample) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        try (InputStream fis = new FileInputStream(sample.file.toFile())) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hexString.append(String.format("%02x", b));
+        }
+        return hexString.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FileHasherBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package org.monitor.benchmark;
+
+import org.monitor.model.HashAlgorithm;
+import org.monitor.util.FileHasher;
+import org.monitor.util.Hasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing throughput per algorithm, in memory (pure CPU cost) and from a file that sits in the page cache.
+ * Scores are milliseconds per {@code sizeMb}, so MB/s = sizeMb * 1000 / score.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.monitor.benchmark.HasherBenchmark}
+ * or from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HasherBenchmark {
+    @Param({"MD5", "CRC32C", "XXH64"})
+    public HashAlgorithm algorithm;
+
+    @Param({"64"})
+    public int sizeMb;
+
+    private ByteBuffer data;
+    private Hasher hasher;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        data = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        hasher = Hasher.create(algorithm);
+        file = Files.createTempFile("hasher-benchmark", ".bin");
+        Files.write(file, bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public byte[] memory(){
+        hasher.update(data.duplicate());
+        return hasher.digest();
+    }
+
+    @Benchmark
+    public String file(){
+        return FileHasher.hashFile(file, algorithm).orElseThrow();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HasherBenchmark.class.getSimpleName()).build()).run();
+    }
+}